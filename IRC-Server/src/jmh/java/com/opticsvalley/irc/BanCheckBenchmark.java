@@ -0,0 +1,62 @@
+package com.opticsvalley.irc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每条消息都要做的封禁检查，分别测量命中和未命中
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BanCheckBenchmark {
+    @Param({"0", "100", "10000"})
+    public int bannedUsers;
+
+    private IRCServer server;
+    private String bannedName;
+    private String onlineName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        server = BenchmarkSupport.newServer();
+        for (int i = 0; i < bannedUsers; i++) {
+            server.banUser("banned" + i, "benchmark");
+        }
+        bannedName = "banned" + (bannedUsers / 2);
+        onlineName = "player42";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.stopQuietly(server);
+    }
+
+    @Benchmark
+    public boolean checkBanned() {
+        return server.isUserBanned(bannedName);
+    }
+
+    @Benchmark
+    public boolean checkNotBanned() {
+        return server.isUserBanned(onlineName);
+    }
+}
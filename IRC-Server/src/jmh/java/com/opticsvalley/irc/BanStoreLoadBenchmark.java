@@ -0,0 +1,76 @@
+package com.opticsvalley.irc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 启动时加载封禁列表的耗时：从快照加载，以及从快照加上未压缩的日志加载
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BanStoreLoadBenchmark {
+    @Param({"10000", "300000"})
+    public int bannedUsers;
+
+    // 快照之后还未压缩的日志条数
+    @Param({"0", "5000"})
+    public int journalRecords;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        directory = Files.createTempDirectory("irc-bench-banstore");
+        try (BanStore store = new BanStore(directory, Integer.MAX_VALUE)) {
+            for (int i = 0; i < bannedUsers; i++) {
+                store.ban("player" + i, "刷屏");
+            }
+            store.compact();
+            for (int i = 0; i < journalRecords; i++) {
+                if (i % 2 == 0) {
+                    store.ban("late" + i, "广告");
+                } else {
+                    store.unban("player" + i);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int load() throws IOException {
+        // 阈值设为最大值，加载时不会触发压缩，每次测量的输入相同
+        try (BanStore store = new BanStore(directory, Integer.MAX_VALUE)) {
+            return store.size();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.opticsvalley.irc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+/**
+ * 基准测试共用的服务器创建和清理方法
+ */
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 用系统分配的端口创建服务器，只接受连接，不启动GUI和控制台
+     * 封禁列表写到临时目录，不会影响工作目录
+     * @param overrides 形如 "irc.io.mode", "nio" 的键值对
+     */
+    static IRCServer newServer(String... overrides) throws IOException {
+        System.setProperty("irc.port", "0");
+        System.setProperty("irc.bans.dir", Files.createTempDirectory("irc-bench-bans").toString());
+        for (int i = 0; i + 1 < overrides.length; i += 2) {
+            System.setProperty(overrides[i], overrides[i + 1]);
+        }
+        try {
+            return new IRCServer(ServerConfig.load());
+        } finally {
+            for (int i = 0; i + 1 < overrides.length; i += 2) {
+                System.clearProperty(overrides[i]);
+            }
+        }
+    }
+
+    /**
+     * 丢弃控制台输出：日志仍然会入队和格式化，但不会刷屏影响JMH的输出
+     */
+    static void silenceConsole() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void stopQuietly(IRCServer server) {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.stop();
+        } catch (IOException ignored) {
+            // 基准结束时忽略关闭异常
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.opticsvalley.irc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 开启和关闭聊天存档时的广播吞吐量对比
+ * 存档写入由后台线程完成，广播线程只多一次入队；两组结果应只相差几个百分点
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatArchiveBenchmark {
+    @Param({"false", "true"})
+    public boolean archive;
+
+    @Param({"100"})
+    public int clients;
+
+    private IRCServer server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        server = BenchmarkSupport.newServer(
+                "irc.archive.enabled", Boolean.toString(archive),
+                "irc.archive.dir", Files.createTempDirectory("irc-bench-archive").toString());
+        for (int i = 0; i < clients; i++) {
+            InMemoryClient client = new InMemoryClient(server, "user" + i);
+            server.addClient(client.getUsername(), client);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.stopQuietly(server);
+    }
+
+    @Benchmark
+    public void broadcast() {
+        server.broadcast("user0", "hello from the archive benchmark");
+    }
+}
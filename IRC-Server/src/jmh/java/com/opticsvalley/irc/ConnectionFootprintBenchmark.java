@@ -0,0 +1,117 @@
+package com.opticsvalley.irc;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各种I/O模式下每个连接占用的堆内存和平台线程数
+ * 结果在JSON的 secondaryMetrics 中；客户端套接字也在同一进程里，比较各模式之间的差值即可
+ * virtual 模式需要用 Java 21 运行，Java 17 上会回退为平台线程
+ * 连接数较多时需要先调高文件描述符上限（ulimit -n）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 1)
+@Fork(3)
+public class ConnectionFootprintBenchmark {
+    @Param({"blocking", "virtual", "nio"})
+    public String mode;
+
+    @Param({"500"})
+    public int connections;
+
+    private IRCServer server;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long heapBytesPerConnection;
+        public double threadsPerConnection;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            heapBytesPerConnection = 0;
+            threadsPerConnection = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        if (mode.equals("nio")) {
+            server = BenchmarkSupport.newServer("irc.io.mode", "nio");
+        } else {
+            server = BenchmarkSupport.newServer("irc.io.mode", "blocking", "irc.threads", mode.equals("virtual") ? "virtual" : "platform");
+        }
+        server.startAcceptor();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 忽略关闭异常
+            }
+        }
+        sockets.clear();
+        BenchmarkSupport.stopQuietly(server);
+    }
+
+    @Benchmark
+    public void openConnections(Footprint footprint) throws Exception {
+        long heapBefore = usedHeapAfterGc();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        for (int i = 0; i < connections; i++) {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            socket.getOutputStream().write(("footprint" + i + "\n").getBytes(StandardCharsets.UTF_8));
+            sockets.add(socket);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (server.getOnlineCount() < connections) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("只有 " + server.getOnlineCount() + " 个连接完成登录");
+            }
+            Thread.sleep(10);
+        }
+
+        long heapAfter = usedHeapAfterGc();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+        footprint.heapBytesPerConnection = (heapAfter - heapBefore) / connections;
+        footprint.threadsPerConnection = (double) (threadsAfter - threadsBefore) / connections;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,76 @@
+package com.opticsvalley.irc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向不同数量的内存客户端广播一条消息的耗时
+ * 包含格式化、编码、入队和记录日志，不包含网络写出
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanoutBenchmark {
+    private static final String CHANNEL = "bench";
+
+    @Param({"10", "100", "1000", "10000"})
+    public int clients;
+
+    private IRCServer server;
+    private InMemoryClient sender;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        // 单分片：在调用线程中完成广播，测量的是完整的投递开销，多分片见 ShardedFanoutBenchmark
+        server = BenchmarkSupport.newServer("irc.fanout.shards", "1");
+        for (int i = 0; i < clients; i++) {
+            InMemoryClient client = new InMemoryClient(server, "user" + i);
+            server.addClient(client.getUsername(), client);
+            if (i == 0) {
+                sender = client;
+            }
+            // 十分之一的客户端加入频道，用来对比频道消息和全局广播
+            if (i % 10 == 0) {
+                server.joinChannel(client, CHANNEL);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.stopQuietly(server);
+    }
+
+    @Benchmark
+    public void broadcast() {
+        server.broadcast("user0", "hello from the benchmark");
+    }
+
+    @Benchmark
+    public void broadcastSystemMessage() {
+        server.broadcastSystemMessage("&a[OpticsValleyIRC] 用户 bench 已加入IRC");
+    }
+
+    @Benchmark
+    public void broadcastToChannel() {
+        server.broadcastToChannel(sender, CHANNEL, "hello channel");
+    }
+}
@@ -0,0 +1,62 @@
+package com.opticsvalley.irc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 消息格式化、编码和颜色代码去除的开销
+ * 正则版本是改为逐字符扫描之前的写法，保留作对比；
+ * renderChatMessage 是一条聊天消息在广播、控制台日志和存档中需要的全部输出形式
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+    private static final Pattern COLOR_CODES = Pattern.compile("&[0-9a-fk-orA-FK-OR]");
+
+    private final String username = "Steve";
+    private final String chatMessage = "今晚八点在主城集合，记得带上钻石镐 &lok?";
+    private final String systemMessage = "&a[OpticsValleyIRC] 用户 Steve 已加入IRC";
+    private final StringBuilder plain = new StringBuilder(128);
+
+    @Benchmark
+    public String formatChat() {
+        return "&e[OpticsValleyIRC]&a<" + username + ">&r: " + chatMessage;
+    }
+
+    @Benchmark
+    public OutboundMessage formatAndEncodeChat() {
+        return OutboundMessage.of("&e[OpticsValleyIRC]&a<" + username + ">&r: " + chatMessage);
+    }
+
+    @Benchmark
+    public int renderChatMessage() {
+        ChatMessage message = ChatMessage.chat(username, chatMessage);
+        return message.getOutbound().getText().length() + message.getRecordText().length();
+    }
+
+    @Benchmark
+    public int stripColorCodes() {
+        plain.setLength(0);
+        ServerLog.appendPlain(systemMessage, plain);
+        return plain.length();
+    }
+
+    @Benchmark
+    public String stripColorCodesRegex() {
+        return COLOR_CODES.matcher(systemMessage).replaceAll("");
+    }
+}
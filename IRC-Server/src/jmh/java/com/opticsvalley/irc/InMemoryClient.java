@@ -0,0 +1,31 @@
+package com.opticsvalley.irc;
+
+/**
+ * 不走网络的客户端：消息入队后立即在当前线程取出并计数
+ * 用于只测量服务端的分发开销
+ */
+final class InMemoryClient extends ClientHandler {
+    private long receivedBytes;
+
+    InMemoryClient(IRCServer server, String username) {
+        super(server);
+        this.username = username;
+    }
+
+    @Override
+    protected void scheduleFlush() {
+        OutboundMessage message;
+        while ((message = outbound.poll()) != null) {
+            receivedBytes += message.length();
+        }
+    }
+
+    @Override
+    protected void closeConnection() {
+        outbound.clear();
+    }
+
+    long getReceivedBytes() {
+        return receivedBytes;
+    }
+}
@@ -0,0 +1,123 @@
+package com.opticsvalley.irc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个连接经回环网络发送消息的吞吐量
+ * 每次调用由发送端写出一批消息，等接收端读回全部消息为止，
+ * 覆盖服务端的读取、按行拆分、广播和写出整条路径
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackReadBenchmark {
+    // 小于默认的发送队列容量，接收端读得慢时也不会丢消息
+    private static final int BATCH = 512;
+    private static final String MARKER = "bench-line";
+
+    @Param({"blocking", "nio"})
+    public String ioMode;
+
+    private IRCServer server;
+    private Socket sender;
+    private Socket receiver;
+    private OutputStream senderOut;
+    private BufferedReader receiverIn;
+    private Thread senderDrain;
+    private byte[] batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkSupport.silenceConsole();
+        server = BenchmarkSupport.newServer("irc.io.mode", ioMode, "irc.presence.windowMillis", "0",
+                "irc.ratelimit.perSecond", "0");
+        server.startAcceptor();
+
+        receiver = connect("receiver");
+        receiverIn = new BufferedReader(new InputStreamReader(receiver.getInputStream(), StandardCharsets.UTF_8));
+        sender = connect("sender");
+        senderOut = sender.getOutputStream();
+        while (server.getOnlineCount() < 2) {
+            Thread.sleep(10);
+        }
+
+        // 发送端也会收到自己的消息，在后台丢弃，避免它的接收缓冲区写满
+        InputStream senderIn = sender.getInputStream();
+        senderDrain = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                while (senderIn.read(buffer) >= 0) {
+                    // 丢弃
+                }
+            } catch (IOException ignored) {
+                // 连接关闭
+            }
+        }, "bench-sender-drain");
+        senderDrain.setDaemon(true);
+        senderDrain.start();
+
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < BATCH; i++) {
+            lines.append(MARKER).append(' ').append(i).append(" 你好，回环测试\n");
+        }
+        batch = lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Socket connect(String username) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        socket.setTcpNoDelay(true);
+        socket.getOutputStream().write((username + "\n").getBytes(StandardCharsets.UTF_8));
+        return socket;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sender.close();
+        receiver.close();
+        BenchmarkSupport.stopQuietly(server);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int sendBatch() throws IOException {
+        senderOut.write(batch);
+        senderOut.flush();
+        int received = 0;
+        while (received < BATCH) {
+            String line = receiverIn.readLine();
+            if (line == null) {
+                throw new IOException("服务器关闭了连接");
+            }
+            if (line.contains(MARKER)) {
+                received++;
+            }
+        }
+        return received;
+    }
+}
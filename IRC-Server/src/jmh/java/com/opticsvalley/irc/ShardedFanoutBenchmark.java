@@ -0,0 +1,61 @@
+package com.opticsvalley.irc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同分片数下广播一条消息直到所有客户端都已入队的耗时，用来观察广播延迟随核心数的变化
+ * 分片数超过CPU核心数时没有意义，结果应与 1 分片（在调用线程中广播）对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedFanoutBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"1000", "10000"})
+    public int clients;
+
+    private IRCServer server;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceConsole();
+        server = BenchmarkSupport.newServer("irc.fanout.shards", String.valueOf(shards),
+                "irc.history.messages", "0");
+        for (int i = 0; i < clients; i++) {
+            InMemoryClient client = new InMemoryClient(server, "user" + i);
+            server.addClient(client.getUsername(), client);
+        }
+        server.awaitFanout();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.stopQuietly(server);
+    }
+
+    @Benchmark
+    public void broadcast() {
+        server.broadcast("user0", "hello from the benchmark");
+        server.awaitFanout();
+    }
+}
@@ -0,0 +1,54 @@
+package com.opticsvalley.irc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 已有大量等待中的心跳检查时，安排并取消一次检查的开销（连接建立和断开时各一次）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerWheelBenchmark {
+    private static final Runnable NOOP = () -> {
+    };
+
+    @Param({"1000", "100000", "500000"})
+    public int outstanding;
+
+    private TimerWheel timers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        timers = new TimerWheel("IRC-Timer-Benchmark", 100, TimeUnit.MILLISECONDS, 512);
+        for (int i = 0; i < outstanding; i++) {
+            timers.schedule(NOOP, 1, TimeUnit.HOURS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        timers.stop();
+    }
+
+    @Benchmark
+    public void scheduleAndCancel() {
+        timers.schedule(NOOP, 30, TimeUnit.SECONDS).cancel();
+    }
+}
@@ -0,0 +1,543 @@
+package com.opticsvalley.irc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本机压测工具：在一个线程里用NIO模拟大量客户端，和 IRCClient 使用同样的协议（先发用户名，之后每行一条消息）
+ *
+ * 前 senders 个客户端按设定的速率轮流发送聊天消息，其余客户端只接收，并按设定的频率随机断开后重连。
+ * 每条消息带有发送者编号、序号和发送时间，接收端据此统计投递延迟、丢失（序号跳跃）、乱序和超时到达。
+ * 连接尚未完成登录时错过的消息不计为丢失：接收端从看到某个发送者的第一条消息开始计算。
+ *
+ * 用法：./gradlew :IRC-Server:loadTest --args="--clients=2000 --senders=50 --rate=500 --duration=60"
+ * 连接数较多时需要先调高文件描述符上限（ulimit -n），服务端建议使用 irc.io.mode=nio
+ */
+public class LoadGenerator {
+    private static final byte[] MARKER = "LG|".getBytes(StandardCharsets.US_ASCII);
+    // 接收端还没有看到该发送者的任何消息
+    private static final long UNSEEN = -2;
+
+    private final String host;
+    private final int port;
+    private final int clientCount;
+    private final int senderCount;
+    private final double rate;
+    private final int durationSeconds;
+    private final int rampSeconds;
+    private final int burstSize;
+    private final int burstIntervalSeconds;
+    private final double churnPerSecond;
+    private final int reconnectDelayMillis;
+    private final long lateMicros;
+    private final int messageBytes;
+    private final int drainSeconds;
+    private final int reportSeconds;
+
+    private final Selector selector;
+    private final SimClient[] clients;
+    // 每个发送者最后发出的序号
+    private final long[] sentSeq;
+    private final ArrayDeque<SimClient> reconnectQueue = new ArrayDeque<>();
+    private final Random random = new Random();
+    private final InetSocketAddress address;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+    private long sent;
+    private long burstsSent;
+    private int nextSender;
+    private long received;
+    private long late;
+    private long lost;
+    private long reordered;
+    private long connectFailures;
+    private long serverDisconnects;
+    private long churned;
+    private int online;
+
+    private final class SimClient {
+        final int id;
+        final byte[] loginLine;
+        final long[] lastSeen = new long[senderCount];
+        final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        SocketChannel channel;
+        SelectionKey key;
+        boolean connected;
+        long reconnectAt;
+        byte[] line = new byte[256];
+        int lineLength;
+
+        SimClient(int id) {
+            this.id = id;
+            this.loginLine = ("lg" + id + "\n").getBytes(StandardCharsets.UTF_8);
+            Arrays.fill(lastSeen, UNSEEN);
+        }
+    }
+
+    public LoadGenerator(Map<String, String> options) throws IOException {
+        this.host = options.getOrDefault("host", "127.0.0.1");
+        this.port = intOption(options, "port", ServerConfig.DEFAULT_PORT);
+        this.clientCount = intOption(options, "clients", 1000);
+        this.senderCount = Math.min(clientCount, intOption(options, "senders", 50));
+        this.rate = doubleOption(options, "rate", 200);
+        this.durationSeconds = intOption(options, "duration", 60);
+        this.rampSeconds = intOption(options, "ramp", 10);
+        this.burstSize = intOption(options, "burst", 0);
+        this.burstIntervalSeconds = Math.max(1, intOption(options, "burstInterval", 10));
+        this.churnPerSecond = doubleOption(options, "churn", 0);
+        this.reconnectDelayMillis = intOption(options, "reconnectDelay", 1000);
+        this.lateMicros = TimeUnit.MILLISECONDS.toMicros(intOption(options, "lateMillis", 1000));
+        this.messageBytes = intOption(options, "messageBytes", 64);
+        this.drainSeconds = intOption(options, "drain", 5);
+        this.reportSeconds = Math.max(1, intOption(options, "report", 5));
+
+        this.selector = Selector.open();
+        this.address = new InetSocketAddress(host, port);
+        this.clients = new SimClient[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            clients[i] = new SimClient(i);
+        }
+        this.sentSeq = new long[senderCount];
+        Arrays.fill(sentSeq, -1);
+    }
+
+    public void run() throws IOException {
+        System.out.printf("压测目标 %s:%d，%d 个客户端（%d 个发送者），%.0f 条/秒，持续 %d 秒%n",
+                host, port, clientCount, senderCount, rate, durationSeconds);
+
+        // 逐步建立连接
+        long start = System.nanoTime();
+        int opened = 0;
+        long rampNanos = TimeUnit.SECONDS.toNanos(rampSeconds);
+        while (opened < clientCount) {
+            long elapsed = System.nanoTime() - start;
+            int target = rampNanos <= 0 ? clientCount : (int) Math.min(clientCount, clientCount * elapsed / rampNanos + 1);
+            while (opened < target) {
+                connect(clients[opened++]);
+            }
+            poll(1);
+        }
+        // 给服务端一点时间处理登录
+        pollUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+        System.out.printf("已建立 %d/%d 个连接，开始发送%n", online, clientCount);
+
+        // 从这里开始统计：此时已连接的客户端应当收到所有消息
+        for (SimClient client : clients) {
+            if (client.connected) {
+                Arrays.fill(client.lastSeen, -1);
+            }
+        }
+        long runStart = System.nanoTime();
+        long runEnd = runStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long nextReport = runStart + TimeUnit.SECONDS.toNanos(reportSeconds);
+        long nextBurst = runStart + TimeUnit.SECONDS.toNanos(burstIntervalSeconds);
+        long intervalSent = 0;
+        long intervalReceived = 0;
+        long now;
+        while ((now = System.nanoTime()) < runEnd) {
+            double elapsedSeconds = (now - runStart) / 1e9;
+
+            // 按速率补齐应发的消息
+            long due = (long) (elapsedSeconds * rate) - (sent - burstsSent);
+            for (long i = 0; i < due; i++) {
+                if (!sendNext()) {
+                    break;
+                }
+            }
+            if (burstSize > 0 && now >= nextBurst) {
+                for (int i = 0; i < burstSize && sendNext(); i++) {
+                    burstsSent++;
+                }
+                nextBurst += TimeUnit.SECONDS.toNanos(burstIntervalSeconds);
+            }
+
+            // 随机断开一部分只接收的客户端，稍后重连
+            long churnDue = (long) (elapsedSeconds * churnPerSecond) - churned;
+            for (long i = 0; i < churnDue; i++) {
+                churnOne(now);
+            }
+
+            reconnectDue(now);
+            poll(1);
+
+            if (now >= nextReport) {
+                System.out.printf("[%3ds] 在线 %d，发送 %d 条/秒，接收 %d 条/秒，延迟 p50 %.1fms p99 %.1fms max %.1fms，丢失 %d，迟到 %d%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now - runStart), online,
+                        (sent - intervalSent) / reportSeconds, (received - intervalReceived) / reportSeconds,
+                        millis(intervalLatency.getPercentile(50)), millis(intervalLatency.getPercentile(99)),
+                        millis(intervalLatency.getMax()), lost, late);
+                intervalLatency.reset();
+                intervalSent = sent;
+                intervalReceived = received;
+                nextReport += TimeUnit.SECONDS.toNanos(reportSeconds);
+            }
+        }
+
+        // 停止发送，等待在途消息到达
+        long actualRunNanos = System.nanoTime() - runStart;
+        pollUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(drainSeconds));
+        countTailLoss();
+        report(actualRunNanos);
+        closeAll();
+    }
+
+    /**
+     * 由下一个在线的发送者发出一条消息
+     * @return false 表示没有在线的发送者
+     */
+    private boolean sendNext() {
+        for (int tries = 0; tries < senderCount; tries++) {
+            SimClient client = clients[nextSender];
+            nextSender = (nextSender + 1) % senderCount;
+            if (client.connected) {
+                long seq = ++sentSeq[client.id];
+                write(client, encode(client.id, seq, System.nanoTime()));
+                sent++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ByteBuffer encode(int sender, long seq, long nanos) {
+        StringBuilder sb = new StringBuilder(messageBytes + 1);
+        sb.append("LG|").append(sender).append('|').append(seq).append('|').append(nanos).append('|');
+        while (sb.length() < messageBytes) {
+            sb.append('x');
+        }
+        sb.append('\n');
+        return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void churnOne(long now) {
+        churned++;
+        int lurkers = clientCount - senderCount;
+        if (lurkers <= 0) {
+            return;
+        }
+        // 随机挑一个在线的只接收客户端
+        for (int tries = 0; tries < 16; tries++) {
+            SimClient client = clients[senderCount + random.nextInt(lurkers)];
+            if (client.connected) {
+                close(client);
+                scheduleReconnect(client, now);
+                return;
+            }
+        }
+    }
+
+    private void scheduleReconnect(SimClient client, long now) {
+        client.reconnectAt = now + TimeUnit.MILLISECONDS.toNanos(reconnectDelayMillis);
+        reconnectQueue.add(client);
+    }
+
+    private void reconnectDue(long now) {
+        SimClient client;
+        while ((client = reconnectQueue.peek()) != null && client.reconnectAt <= now) {
+            reconnectQueue.poll();
+            connect(client);
+        }
+    }
+
+    private void connect(SimClient client) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            client.channel = channel;
+            client.lineLength = 0;
+            client.pending.clear();
+            if (channel.connect(address)) {
+                client.key = channel.register(selector, SelectionKey.OP_READ, client);
+                onConnected(client);
+            } else {
+                client.key = channel.register(selector, SelectionKey.OP_CONNECT, client);
+            }
+        } catch (IOException e) {
+            connectFailures++;
+            close(client);
+            scheduleReconnect(client, System.nanoTime());
+        }
+    }
+
+    private void onConnected(SimClient client) {
+        client.connected = true;
+        online++;
+        // 重连后不知道错过了哪些消息，从下一条开始重新计算
+        Arrays.fill(client.lastSeen, UNSEEN);
+        write(client, ByteBuffer.wrap(client.loginLine));
+    }
+
+    private void close(SimClient client) {
+        if (client.connected) {
+            client.connected = false;
+            online--;
+        }
+        if (client.key != null) {
+            client.key.cancel();
+            client.key = null;
+        }
+        if (client.channel != null) {
+            try {
+                client.channel.close();
+            } catch (IOException ignored) {
+                // 忽略关闭异常
+            }
+            client.channel = null;
+        }
+        client.pending.clear();
+    }
+
+    private void write(SimClient client, ByteBuffer buffer) {
+        if (client.channel == null) {
+            return;
+        }
+        try {
+            if (client.pending.isEmpty()) {
+                client.channel.write(buffer);
+            }
+            if (buffer.hasRemaining()) {
+                client.pending.add(buffer);
+                client.key.interestOps(client.key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            lostConnection(client);
+        }
+    }
+
+    private void onWritable(SimClient client) throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = client.pending.peek()) != null) {
+            client.channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            client.pending.poll();
+        }
+        client.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void lostConnection(SimClient client) {
+        serverDisconnects++;
+        close(client);
+        scheduleReconnect(client, System.nanoTime());
+    }
+
+    private void pollUntil(long deadline) throws IOException {
+        long now;
+        while ((now = System.nanoTime()) < deadline) {
+            reconnectDue(now);
+            poll(1);
+        }
+    }
+
+    private void poll(long timeoutMillis) throws IOException {
+        selector.select(timeoutMillis);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            SimClient client = (SimClient) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    client.channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                    onConnected(client);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    onReadable(client);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    onWritable(client);
+                }
+            } catch (IOException e) {
+                if (!client.connected) {
+                    connectFailures++;
+                    close(client);
+                    scheduleReconnect(client, System.nanoTime());
+                } else {
+                    lostConnection(client);
+                }
+            }
+        }
+    }
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    private void onReadable(SimClient client) throws IOException {
+        while (client.channel != null) {
+            readBuffer.clear();
+            int read = client.channel.read(readBuffer);
+            if (read < 0) {
+                lostConnection(client);
+                return;
+            }
+            if (read == 0) {
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    onLine(client, client.line, client.lineLength);
+                    client.lineLength = 0;
+                } else {
+                    if (client.lineLength == client.line.length) {
+                        client.line = Arrays.copyOf(client.line, client.line.length * 2);
+                    }
+                    client.line[client.lineLength++] = b;
+                }
+            }
+        }
+    }
+
+    private void onLine(SimClient client, byte[] line, int length) {
+        int start = indexOf(line, length, MARKER);
+        if (start < 0) {
+            // 系统通知等其他消息
+            return;
+        }
+        int[] position = {start + MARKER.length};
+        long sender = parseField(line, length, position);
+        long seq = parseField(line, length, position);
+        long sentNanos = parseField(line, length, position);
+        if (sender < 0 || sender >= senderCount || seq < 0 || sentNanos < 0) {
+            return;
+        }
+
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentNanos);
+        received++;
+        latency.record(micros);
+        intervalLatency.record(micros);
+        if (micros > lateMicros) {
+            late++;
+        }
+
+        long last = client.lastSeen[(int) sender];
+        if (last == UNSEEN || seq == last + 1) {
+            client.lastSeen[(int) sender] = seq;
+        } else if (seq > last + 1) {
+            lost += seq - last - 1;
+            client.lastSeen[(int) sender] = seq;
+        } else {
+            reordered++;
+        }
+    }
+
+    // 测量结束时，每个在线客户端还没收到的最后几条消息也算作丢失
+    private void countTailLoss() {
+        for (SimClient client : clients) {
+            if (!client.connected) {
+                continue;
+            }
+            for (int sender = 0; sender < senderCount; sender++) {
+                long last = client.lastSeen[sender];
+                if (last != UNSEEN && last < sentSeq[sender]) {
+                    lost += sentSeq[sender] - last;
+                }
+            }
+        }
+    }
+
+    private static int indexOf(byte[] data, int length, byte[] pattern) {
+        outer:
+        for (int i = 0; i + pattern.length <= length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    // 解析以 | 结尾的十进制数字字段，格式不对时返回 -1
+    private static long parseField(byte[] data, int length, int[] position) {
+        long value = 0;
+        int i = position[0];
+        int digits = 0;
+        while (i < length && data[i] != '|') {
+            byte b = data[i++];
+            if (b < '0' || b > '9' || ++digits > 18) {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        if (i >= length || digits == 0) {
+            return -1;
+        }
+        position[0] = i + 1;
+        return value;
+    }
+
+    private void report(long runNanos) {
+        double seconds = runNanos / 1e9;
+        long expected = received + lost;
+        System.out.println("=== 压测结果 ===");
+        System.out.printf("客户端 %d 个（发送者 %d 个），发送 %.1f 秒%n", clientCount, senderCount, seconds);
+        System.out.printf("发送 %d 条（%.0f 条/秒），接收 %d 条（%.0f 条/秒）%n",
+                sent, sent / seconds, received, received / seconds);
+        System.out.printf("投递延迟 p50 %.2fms  p90 %.2fms  p99 %.2fms  p99.9 %.2fms  max %.2fms%n",
+                millis(latency.getPercentile(50)), millis(latency.getPercentile(90)),
+                millis(latency.getPercentile(99)), millis(latency.getPercentile(99.9)), millis(latency.getMax()));
+        System.out.printf("丢失 %d 条（%.3f%%），迟到（超过 %dms）%d 条，乱序或重复 %d 条%n",
+                lost, expected == 0 ? 0.0 : lost * 100.0 / expected, TimeUnit.MICROSECONDS.toMillis(lateMicros), late, reordered);
+        System.out.printf("连接失败 %d 次，被服务器断开 %d 次，主动断开重连 %d 次，结束时在线 %d 个%n",
+                connectFailures, serverDisconnects, churned, online);
+    }
+
+    private void closeAll() throws IOException {
+        for (SimClient client : clients) {
+            close(client);
+        }
+        selector.close();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static int intOption(Map<String, String> options, String key, int defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static double doubleOption(Map<String, String> options, String key, double defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * 参数格式为 --名称=值，可用的名称：
+     * host, port, clients, senders, rate（每秒总条数）, duration（秒）, ramp（建立连接用的秒数）,
+     * burst（每次突发的条数）, burstInterval（突发间隔秒数）, churn（每秒断开重连的客户端数）,
+     * reconnectDelay（毫秒）, lateMillis（超过该延迟算迟到）, messageBytes, drain（结束后等待的秒数）, report（报告间隔秒数）
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("无法识别的参数: " + arg + "，格式为 --名称=值");
+                System.exit(2);
+            }
+            int separator = arg.indexOf('=');
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+}
@@ -0,0 +1,330 @@
+package com.opticsvalley.irc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 持久化的封禁列表
+ * 查询只访问内存中的表；封禁和解封先追加写入日志文件（bans.journal），
+ * 日志条数达到阈值后把当前列表整体写成快照（bans.snapshot）并清空日志。
+ * 启动时先读快照再重放日志，日志末尾写了一半的记录会被忽略并截掉。
+ * 日志写入后只刷到操作系统缓存，进程崩溃不会丢失；快照替换前会同步到磁盘。
+ */
+public class BanStore implements Closeable {
+    static final String SNAPSHOT_FILE = "bans.snapshot";
+    static final String JOURNAL_FILE = "bans.journal";
+    private static final int SNAPSHOT_MAGIC = 0x4F56424E; // "OVBN"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final byte OP_BAN = 1;
+    private static final byte OP_UNBAN = 2;
+    // 单个字符串的长度上限，超过说明文件已损坏
+    private static final int MAX_STRING_BYTES = 1 << 20;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final int compactThreshold;
+    // 用户名 -> 封禁原因
+    private final ConcurrentHashMap<String, String> bans;
+    private DataOutputStream journal;
+    private FileOutputStream journalFileStream;
+    private int journalRecords;
+    // 重新加载后接替本实例的新实例，之后仍通过本实例进行的修改都转给它
+    private BanStore successor;
+
+    public BanStore(Path directory, int compactThreshold) throws IOException {
+        Files.createDirectories(directory);
+        this.snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        this.journalFile = directory.resolve(JOURNAL_FILE);
+        this.compactThreshold = Math.max(1, compactThreshold);
+
+        long start = System.nanoTime();
+        this.bans = loadSnapshot();
+        int replayed = replayJournal();
+        openJournal(true);
+        ServerLog.info("已加载 " + bans.size() + " 条封禁记录（重放日志 " + replayed + " 条），用时 "
+                + (System.nanoTime() - start) / 1_000_000 + "ms");
+
+        if (journalRecords >= this.compactThreshold) {
+            compact();
+        }
+    }
+
+    public boolean isBanned(String username) {
+        return bans.containsKey(username);
+    }
+
+    /**
+     * @return 未被封禁时返回 null
+     */
+    public String getReason(String username) {
+        return bans.get(username);
+    }
+
+    public int size() {
+        return bans.size();
+    }
+
+    public synchronized void ban(String username, String reason) {
+        if (successor != null) {
+            successor.ban(username, reason);
+            return;
+        }
+        bans.put(username, reason);
+        append(OP_BAN, username, reason);
+    }
+
+    /**
+     * @return 原来的封禁原因，未被封禁时返回 null
+     */
+    public synchronized String unban(String username) {
+        if (successor != null) {
+            return successor.unban(username);
+        }
+        String reason = bans.remove(username);
+        if (reason != null) {
+            append(OP_UNBAN, username, null);
+        }
+        return reason;
+    }
+
+    /**
+     * 把当前列表写成新的快照并清空日志
+     */
+    public synchronized void compact() {
+        Path temp = snapshotFile.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try {
+            // 修改都经过同步方法，写快照期间列表不会变化
+            try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+                 CheckedOutputStream checked = new CheckedOutputStream(fileOut, new CRC32());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(bans.size());
+                for (Map.Entry<String, String> entry : bans.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue());
+                }
+                // 末尾是前面所有内容的校验和
+                out.flush();
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // 快照已包含日志中的所有修改，可以清空日志；在这之前崩溃时重放日志也不会出错
+            closeJournal();
+            openJournal(false);
+            journalRecords = 0;
+        } catch (IOException e) {
+            ServerLog.error("写入封禁快照失败", e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // 忽略删除临时文件的异常
+            }
+        }
+    }
+
+    /**
+     * 从目录重新加载封禁列表
+     * 先关闭本实例的日志再加载，新实例重放和截断日志时不会有两个实例同时写同一个文件；
+     * 加载失败时重新打开日志，继续使用本实例
+     */
+    public synchronized BanStore reopen(Path directory, int compactThreshold) throws IOException {
+        if (successor != null) {
+            return successor.reopen(directory, compactThreshold);
+        }
+        closeJournal();
+        BanStore reloaded;
+        try {
+            reloaded = new BanStore(directory, compactThreshold);
+        } catch (IOException e) {
+            openJournal(true);
+            throw e;
+        }
+        successor = reloaded;
+        return reloaded;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeJournal();
+    }
+
+    private void append(byte op, String username, String reason) {
+        if (journal == null) {
+            ServerLog.warn("封禁日志不可用，本次修改只在内存中生效: " + username);
+            return;
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+            DataOutputStream payload = new DataOutputStream(buffer);
+            payload.writeByte(op);
+            writeString(payload, username);
+            if (op == OP_BAN) {
+                writeString(payload, reason);
+            }
+            byte[] bytes = buffer.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+
+            journal.writeInt(bytes.length);
+            journal.write(bytes);
+            journal.writeInt((int) crc.getValue());
+            journal.flush();
+            journalRecords++;
+        } catch (IOException e) {
+            ServerLog.error("写入封禁日志失败，本次修改只在内存中生效: " + username, e);
+            return;
+        }
+        if (journalRecords >= compactThreshold) {
+            compact();
+        }
+    }
+
+    private ConcurrentHashMap<String, String> loadSnapshot() throws IOException {
+        if (!Files.isRegularFile(snapshotFile)) {
+            return new ConcurrentHashMap<>();
+        }
+        try (InputStream fileIn = Files.newInputStream(snapshotFile);
+             CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(fileIn, 1 << 16), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("文件格式不正确");
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("条目数无效: " + count);
+            }
+            ConcurrentHashMap<String, String> loaded = new ConcurrentHashMap<>(Math.max(16, count));
+            for (int i = 0; i < count; i++) {
+                String username = readString(in);
+                loaded.put(username, readString(in));
+            }
+            long expectedCrc = checked.getChecksum().getValue();
+            if (in.readLong() != expectedCrc) {
+                throw new IOException("校验和不匹配");
+            }
+            return loaded;
+        } catch (IOException e) {
+            // 不能静默地丢掉封禁列表，保留损坏的文件以便人工恢复
+            Path corrupt = snapshotFile.resolveSibling(SNAPSHOT_FILE + ".corrupt");
+            Files.move(snapshotFile, corrupt, StandardCopyOption.REPLACE_EXISTING);
+            ServerLog.error("封禁快照已损坏，已另存为 " + corrupt + "，只从日志恢复封禁记录", e);
+            return new ConcurrentHashMap<>();
+        }
+    }
+
+    private int replayJournal() throws IOException {
+        if (!Files.isRegularFile(journalFile)) {
+            return 0;
+        }
+        byte[] data = Files.readAllBytes(journalFile);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int replayed = 0;
+        int validLength = 0;
+        try {
+            while (validLength < data.length) {
+                int length = in.readInt();
+                if (length <= 0 || length > data.length - validLength - 8) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                apply(bytes);
+                replayed++;
+                validLength += 4 + length + 4;
+            }
+        } catch (EOFException e) {
+            // 最后一条记录不完整
+        }
+
+        if (validLength < data.length) {
+            ServerLog.warn("封禁日志末尾有 " + (data.length - validLength) + " 字节不完整或已损坏，已忽略");
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        journalRecords = replayed;
+        return replayed;
+    }
+
+    private void apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte op = in.readByte();
+        String username = readString(in);
+        if (op == OP_BAN) {
+            bans.put(username, readString(in));
+        } else if (op == OP_UNBAN) {
+            bans.remove(username);
+        }
+    }
+
+    private void openJournal(boolean append) {
+        try {
+            journalFileStream = new FileOutputStream(journalFile.toFile(), append);
+            journal = new DataOutputStream(new BufferedOutputStream(journalFileStream));
+        } catch (IOException e) {
+            ServerLog.error("打开封禁日志失败，封禁修改将不会被保存", e);
+            journal = null;
+            journalFileStream = null;
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.flush();
+            journalFileStream.getFD().sync();
+            journal.close();
+        } catch (IOException e) {
+            ServerLog.warn("关闭封禁日志时出错: " + e.getMessage());
+        }
+        journal = null;
+        journalFileStream = null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("字符串长度无效: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,69 @@
+package com.opticsvalley.irc;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 频道订阅索引：频道名 -> 订阅该频道的客户端
+ * 频道消息只发给该频道的成员，不再对所有在线用户广播
+ */
+public class ChannelRegistry {
+    private static final Pattern VALID_NAME = Pattern.compile("[a-z0-9_\\-]{1,32}");
+
+    private final ConcurrentHashMap<String, Set<ClientHandler>> members = new ConcurrentHashMap<>();
+
+    /**
+     * 规范化频道名：去掉开头的 #，转为小写
+     * @return 频道名无效时返回 null
+     */
+    public static String normalize(String name) {
+        if (name == null) {
+            return null;
+        }
+        String normalized = name.trim().toLowerCase(Locale.ROOT);
+        if (normalized.startsWith("#")) {
+            normalized = normalized.substring(1);
+        }
+        return VALID_NAME.matcher(normalized).matches() ? normalized : null;
+    }
+
+    /**
+     * @return false 表示该客户端已在频道中
+     */
+    public boolean join(String channel, ClientHandler client) {
+        boolean[] added = new boolean[1];
+        members.compute(channel, (key, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            added[0] = set.add(client);
+            return set;
+        });
+        return added[0];
+    }
+
+    /**
+     * @return false 表示该客户端不在频道中
+     */
+    public boolean part(String channel, ClientHandler client) {
+        boolean[] removed = new boolean[1];
+        members.computeIfPresent(channel, (key, set) -> {
+            removed[0] = set.remove(client);
+            // 最后一个成员离开后删除频道
+            return set.isEmpty() ? null : set;
+        });
+        return removed[0];
+    }
+
+    public Set<ClientHandler> getMembers(String channel) {
+        Set<ClientHandler> set = members.get(channel);
+        return set != null ? set : Collections.emptySet();
+    }
+
+    public Set<String> getChannels() {
+        return Collections.unmodifiableSet(members.keySet());
+    }
+}
@@ -0,0 +1,296 @@
+package com.opticsvalley.irc;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 聊天存档：把广播、频道和系统消息追加写入本地的分段文件
+ * 处理线程只把记录放入无锁环形队列，由后台线程批量写出并统一 fsync（组提交），
+ * 一次 fsync 覆盖这段时间内的所有记录，处理线程永远不会等待磁盘。
+ * 写出间隔为 irc.archive.commitMillis，队列过半时提前写出。
+ * 每个分段写满后换新文件，换文件时和每分钟检查一次，删除超过总大小或保存时间的旧分段。
+ * 每条记录占一行：时间 类型 内容，颜色代码已去除，方便直接用文本工具查看
+ */
+public class ChatArchive {
+    private static final String SEGMENT_PREFIX = "chat-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final DateTimeFormatter SEGMENT_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter RECORD_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final long RETENTION_CHECK_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final class Segment {
+        final Path path;
+        long size;
+
+        Segment(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long retentionBytes;
+    private final long retentionMillis;
+    private final long commitNanos;
+    private final MpscRingBuffer<ChatMessage> queue;
+    private final int wakeThreshold;
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder writtenCount = new LongAdder();
+    private final Thread writer;
+    private final AtomicBoolean writerParked = new AtomicBoolean(false);
+    private volatile boolean isRunning = true;
+
+    // 以下字段只由后台线程访问
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private Segment current;
+    private String segmentStamp;
+    private int segmentSequence;
+    private FileOutputStream currentFile;
+    private OutputStream out;
+    private boolean dirty;
+    private long lastRetentionCheck;
+    private long cachedSecond = -1;
+    private String cachedTime = "";
+    private final StringBuilder line = new StringBuilder(256);
+
+    public ChatArchive(Path directory, long segmentBytes, long retentionBytes, long retentionMillis,
+                       long commitMillis, int capacity) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = Math.max(64 * 1024, segmentBytes);
+        this.retentionBytes = retentionBytes;
+        this.retentionMillis = retentionMillis;
+        this.commitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, commitMillis));
+        this.queue = new MpscRingBuffer<>(capacity);
+        this.wakeThreshold = queue.capacity() / 2;
+
+        Files.createDirectories(directory);
+        loadSegments();
+        openSegment();
+        enforceRetention();
+
+        this.writer = new Thread(this::writeLoop, "IRC-Archive");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        ServerLog.info("聊天存档已开启，目录: " + directory.toAbsolutePath());
+    }
+
+    /**
+     * 追加一条消息，纯文本由后台线程取自 {@link ChatMessage#getRecordText()}，日志线程已生成时直接复用
+     */
+    public void append(ChatMessage message) {
+        publish(message);
+    }
+
+    /**
+     * 因队列已满而没有写入存档的记录数
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.sum();
+    }
+
+    /**
+     * 写完队列中的记录并同步到磁盘后停止后台线程
+     */
+    public void close() {
+        isRunning = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void publish(ChatMessage message) {
+        if (!queue.offer(message)) {
+            droppedCount.increment();
+            return;
+        }
+        // 后台线程按提交间隔自行醒来；只有队列快满时才提前唤醒它，避免每条消息都唤醒一次线程
+        if (writerParked.get() && queue.size() >= wakeThreshold && writerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void writeLoop() {
+        lastRetentionCheck = System.nanoTime();
+        while (isRunning || !queue.isEmpty()) {
+            try {
+                // 每轮最多写出一个队列容量的记录，持续高负载时也能定期同步
+                ChatMessage message;
+                int count = 0;
+                while (count < queue.capacity() && (message = queue.poll()) != null) {
+                    write(message);
+                    count++;
+                }
+                writtenCount.add(count);
+                // 这段时间内写出的所有记录一起同步到磁盘
+                commit();
+                maybeEnforceRetention();
+
+                writerParked.set(true);
+                if (isRunning && queue.size() < wakeThreshold) {
+                    LockSupport.parkNanos(commitNanos);
+                }
+                writerParked.set(false);
+            } catch (IOException e) {
+                ServerLog.error("写入聊天存档失败", e);
+                // 避免磁盘出错时空转
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+        try {
+            commit();
+            closeSegment();
+        } catch (IOException e) {
+            ServerLog.error("关闭聊天存档失败", e);
+        }
+    }
+
+    private void write(ChatMessage message) throws IOException {
+        line.setLength(0);
+        appendTime(message.getTime());
+        line.append(' ').append(message.getKind().name()).append(' ').append(message.getRecordText()).append('\n');
+
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (current.size > 0 && current.size + bytes.length > segmentBytes) {
+            rollSegment();
+        }
+        out.write(bytes);
+        current.size += bytes.length;
+        dirty = true;
+    }
+
+    private void appendTime(long time) {
+        long second = time / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTime = RECORD_TIME.format(Instant.ofEpochMilli(time));
+        }
+        int millis = (int) (time % 1000);
+        line.append(cachedTime).append('.');
+        if (millis < 100) {
+            line.append('0');
+        }
+        if (millis < 10) {
+            line.append('0');
+        }
+        line.append(millis);
+    }
+
+    private void commit() throws IOException {
+        if (dirty) {
+            out.flush();
+            currentFile.getChannel().force(false);
+            dirty = false;
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        commit();
+        closeSegment();
+        openSegment();
+        enforceRetention();
+    }
+
+    private void openSegment() throws IOException {
+        String stamp = SEGMENT_TIME.format(Instant.now());
+        // 同一秒内换了多个分段时序号递增，序号定宽，文件名顺序即时间顺序
+        if (!stamp.equals(segmentStamp)) {
+            segmentStamp = stamp;
+            segmentSequence = 0;
+        }
+        Path path;
+        do {
+            path = directory.resolve(SEGMENT_PREFIX + stamp + String.format("-%03d", segmentSequence++) + SEGMENT_SUFFIX);
+        } while (Files.exists(path));
+        currentFile = new FileOutputStream(path.toFile());
+        out = new BufferedOutputStream(currentFile, 64 * 1024);
+        current = new Segment(path, 0);
+        segments.add(current);
+    }
+
+    private void closeSegment() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            currentFile = null;
+        }
+    }
+
+    private void loadSegments() throws IOException {
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                existing.add(path);
+            }
+        }
+        // 文件名以时间开头，按名称排序即按时间排序
+        Collections.sort(existing);
+        for (Path path : existing) {
+            segments.add(new Segment(path, Files.size(path)));
+        }
+    }
+
+    private void maybeEnforceRetention() {
+        long now = System.nanoTime();
+        if (now - lastRetentionCheck >= RETENTION_CHECK_NANOS) {
+            lastRetentionCheck = now;
+            enforceRetention();
+        }
+    }
+
+    // 删除超过总大小或保存时间的旧分段，当前分段不会被删除
+    private void enforceRetention() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.size;
+        }
+        long oldestAllowed = retentionMillis > 0 ? System.currentTimeMillis() - retentionMillis : Long.MIN_VALUE;
+        while (segments.size() > 1) {
+            Segment oldest = segments.peekFirst();
+            boolean tooLarge = retentionBytes > 0 && total > retentionBytes;
+            boolean tooOld;
+            try {
+                tooOld = Files.getLastModifiedTime(oldest.path).toMillis() < oldestAllowed;
+            } catch (IOException e) {
+                // 文件已被手动删除
+                segments.pollFirst();
+                continue;
+            }
+            if (!tooLarge && !tooOld) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                ServerLog.warn("删除旧的聊天存档失败: " + oldest.path + " - " + e.getMessage());
+                break;
+            }
+            segments.pollFirst();
+            total -= oldest.size;
+        }
+    }
+}
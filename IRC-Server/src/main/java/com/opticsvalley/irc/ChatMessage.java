@@ -0,0 +1,139 @@
+package com.opticsvalley.irc;
+
+/**
+ * 一条聊天、频道或系统消息，创建后不可修改
+ * 各种输出形式在第一次需要时生成并缓存，之后所有使用者共享：
+ * 客户端看到的带 &amp; 颜色代码的文本、去掉颜色代码的纯文本记录（控制台日志和聊天存档），
+ * 以及编码好的发送字节（{@link OutboundMessage}，其中的帧编码同样只生成一次）。
+ * 广播线程只需要编码发送字节，纯文本记录由日志和存档的后台线程生成，谁先用到谁生成
+ */
+public final class ChatMessage {
+    public enum Kind {
+        CHAT,
+        CHANNEL,
+        SYSTEM
+    }
+
+    private final long time = System.currentTimeMillis();
+    private final Kind kind;
+    private final String channel;
+    private final String username;
+    private final String text;
+    // 以下为缓存的输出形式，多个线程同时生成时结果相同
+    private volatile String clientText;
+    private volatile String recordText;
+    private volatile OutboundMessage outbound;
+
+    private ChatMessage(Kind kind, String channel, String username, String text, OutboundMessage outbound) {
+        this.kind = kind;
+        this.channel = channel;
+        this.username = username;
+        this.text = text;
+        this.outbound = outbound;
+    }
+
+    public static ChatMessage chat(String username, String text) {
+        return new ChatMessage(Kind.CHAT, null, username, text, null);
+    }
+
+    public static ChatMessage channel(String channel, String username, String text) {
+        return new ChatMessage(Kind.CHANNEL, channel, username, text, null);
+    }
+
+    /**
+     * @param text 带颜色代码的系统消息
+     */
+    public static ChatMessage system(String text) {
+        return new ChatMessage(Kind.SYSTEM, null, null, text, null);
+    }
+
+    /**
+     * 已经按协议编码好的系统消息，如带原因的断开通知
+     */
+    static ChatMessage system(OutboundMessage encoded) {
+        return new ChatMessage(Kind.SYSTEM, null, null, encoded.getText(), encoded);
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * 用户发送的原始内容，系统消息为带颜色代码的全文
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * 客户端显示的文本，带 &amp; 颜色代码
+     */
+    public String getClientText() {
+        String rendered = clientText;
+        if (rendered == null) {
+            switch (kind) {
+                case CHAT:
+                    rendered = "&e[OpticsValleyIRC]&a<" + username + ">&r: " + text;
+                    break;
+                case CHANNEL:
+                    rendered = "&e[OpticsValleyIRC]&b[#" + channel + "]&a<" + username + ">&r: " + text;
+                    break;
+                case SYSTEM:
+                default:
+                    rendered = text;
+                    break;
+            }
+            clientText = rendered;
+        }
+        return rendered;
+    }
+
+    /**
+     * 控制台日志和聊天存档使用的纯文本：[用户名]: 内容、#频道 [用户名]: 内容，或去掉颜色代码的系统消息
+     */
+    public String getRecordText() {
+        String rendered = recordText;
+        if (rendered == null) {
+            StringBuilder sb = new StringBuilder(text.length() + 24);
+            switch (kind) {
+                case CHAT:
+                    sb.append('[').append(username).append("]: ").append(text);
+                    break;
+                case CHANNEL:
+                    sb.append('#').append(channel).append(" [").append(username).append("]: ").append(text);
+                    break;
+                case SYSTEM:
+                default:
+                    ServerLog.appendPlain(text, sb);
+                    break;
+            }
+            rendered = sb.toString();
+            recordText = rendered;
+        }
+        return rendered;
+    }
+
+    /**
+     * 编码好的发送字节，所有接收者共享
+     */
+    public OutboundMessage getOutbound() {
+        OutboundMessage encoded = outbound;
+        if (encoded == null) {
+            encoded = OutboundMessage.of(getClientText());
+            outbound = encoded;
+        }
+        return encoded;
+    }
+}
@@ -1,109 +1,539 @@
 package com.opticsvalley.irc;
 
-import java.io.*;
-import java.net.Socket;
-import java.net.SocketException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class ClientHandler implements Runnable {
-    private Socket socket;
-    private final IRCServer server;
-    private String username;
-    private BufferedReader in;
-    private PrintWriter out;
-    private volatile boolean isRunning = true;
+/**
+ * 单个客户端连接的协议处理
+ * 具体的读写方式由子类实现：阻塞式见 {@link SocketClientHandler}，NIO见 {@link NioClientHandler}
+ */
+public abstract class ClientHandler {
+    protected static final OutboundMessage DISCONNECT_MESSAGE = OutboundMessage.disconnect(IRCProtocol.REASON_CLOSED,
+            "&c[OpticsValleyIRC] 与服务器的连接已断开");
+    private static final OutboundMessage HANDSHAKE_OK = OutboundMessage.raw(IRCProtocol.HANDSHAKE_OK);
+    private static final OutboundMessage PING = OutboundMessage.ping();
 
-    public ClientHandler(Socket socket, IRCServer server) {
-        this.socket = socket;
+    protected final IRCServer server;
+    protected volatile String username;
+    // 握手后为 true，之后收发的都是二进制帧，见 {@link IRCProtocol}
+    protected volatile boolean framed;
+    // 握手时协商开启压缩后不为 null，只由写任务或事件循环使用
+    protected volatile FrameCompressor compressor;
+    // 待发送的消息，由各自的写线程或事件循环取出
+    protected final OutboundQueue<OutboundMessage> outbound;
+    // 该连接加入的频道
+    private final Set<String> channels = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean isRunning = new AtomicBoolean(true);
+    protected final ServerMetrics metrics;
+    // 写出出错或因发送队列满而断开的次数，不含被丢弃的消息
+    private final AtomicLong sendFailures = new AtomicLong();
+    private final long acceptedAt = System.nanoTime();
+    // 未开启限流时为 null，重新加载配置时替换
+    private volatile RateLimiter rateLimiter;
+    // 本次被限流时是否已经通知过发送者，恢复发送后重置，只由读线程访问
+    private boolean throttleNotified;
+    // 握手时声明会回应心跳
+    private volatile boolean pingSupported;
+    // 最近一次读到数据的时间，由读线程更新
+    private volatile long lastReadNanos = acceptedAt;
+    // 下一次心跳检查，断开时取消
+    private volatile TimerWheel.Timeout heartbeat;
+    // 已发送但还没有收到回应的心跳的发送时间，0 表示没有，只由时间轮线程访问
+    private long pingSentAt;
+    // 登录后回放聊天记录之前不为 null，暂存这期间收到的广播，修改时持有 this 的锁
+    private volatile List<Delivery> pendingDeliveries;
+    // 回放中最后一条消息的序号，序号不大于它的广播已经在回放中，不再发送
+    private volatile long replayedUpTo;
+
+    /**
+     * 回放之前收到的一条广播
+     */
+    private static final class Delivery {
+        final OutboundMessage message;
+        final long sequence;
+
+        Delivery(OutboundMessage message, long sequence) {
+            this.message = message;
+            this.sequence = sequence;
+        }
+    }
+
+    protected ClientHandler(IRCServer server) {
         this.server = server;
+        this.metrics = server.getMetrics();
+        ServerConfig config = server.getConfig();
+        this.outbound = new OutboundQueue<>(config.getOutboundCapacity(), config.getOverflowPolicy(),
+                metrics.droppedMessagesCounter());
+        this.rateLimiter = newRateLimiter(config);
+        metrics.connectionOpened();
     }
 
-    @Override
-    public void run() {
-        try {
-            // 使用UTF-8编码处理输入输出
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-
-            // First message should be the username
-            username = in.readLine();
-            if (username != null && !username.trim().isEmpty()) {
-                server.addClient(username, this);
-
-                String message;
-                while (isRunning && (message = in.readLine()) != null) {
-                    server.broadcast(username, message);
+    private static RateLimiter newRateLimiter(ServerConfig config) {
+        return config.getRateLimitPerSecond() > 0
+                ? new RateLimiter(config.getRateLimitPerSecond(), config.getRateLimitBurst())
+                : null;
+    }
+
+    /**
+     * 重新加载配置后应用到已有的连接，发送队列和压缩等连接建立时协商的设置保持不变
+     */
+    void reconfigure(ServerConfig config) {
+        rateLimiter = newRateLimiter(config);
+    }
+
+    /**
+     * 开始检查连接是否还活着，由创建连接的线程在连接可以收发之后调用
+     * 第一次检查在登录时限到达时进行，没有登录的连接直接断开
+     */
+    void startHeartbeat(TimerWheel timers) {
+        heartbeat = timers.schedule(() -> checkHeartbeat(timers),
+                server.getConfig().getHeartbeatTimeoutMillis(), TimeUnit.MILLISECONDS);
+        if (!isRunning()) {
+            heartbeat.cancel();
+        }
+    }
+
+    /**
+     * 在时间轮线程中执行：只有连接在一个心跳间隔内没有收到任何数据时才发送心跳，
+     * 心跳发出后超时仍没有收到数据则断开，因此死掉的连接最多在 间隔 + 超时 之后被清理。
+     * 有数据往来的连接只是按最近一次读取的时间重新安排检查，读线程不需要操作时间轮
+     */
+    private void checkHeartbeat(TimerWheel timers) {
+        if (!isRunning()) {
+            return;
+        }
+        ServerConfig config = server.getConfig();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getHeartbeatTimeoutMillis());
+        if (username == null) {
+            evict("没有在 " + config.getHeartbeatTimeoutMillis() / 1000 + " 秒内完成登录");
+            return;
+        }
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getHeartbeatIntervalMillis());
+        if (!pingSupported || intervalNanos == 0) {
+            // 旧协议的客户端不会回应心跳，只依靠TCP保活；没有开启心跳时不再检查，之后重新加载配置开启心跳只对新连接生效
+            return;
+        }
+        long now = System.nanoTime();
+        long lastRead = lastReadNanos;
+        long delay;
+        if (pingSentAt != 0 && lastRead - pingSentAt <= 0) {
+            long waited = now - pingSentAt;
+            if (waited >= timeoutNanos) {
+                evict("超过 " + TimeUnit.NANOSECONDS.toSeconds(now - lastRead) + " 秒没有响应");
+                return;
+            }
+            delay = timeoutNanos - waited;
+        } else if (now - lastRead >= intervalNanos) {
+            send(PING);
+            pingSentAt = now;
+            delay = timeoutNanos;
+        } else {
+            pingSentAt = 0;
+            delay = intervalNanos - (now - lastRead);
+        }
+        heartbeat = timers.schedule(() -> checkHeartbeat(timers), delay, TimeUnit.NANOSECONDS);
+        if (!isRunning()) {
+            heartbeat.cancel();
+        }
+    }
+
+    private void evict(String reason) {
+        String name = username;
+        ServerLog.info("客户端 " + (name != null ? name : "未知用户") + " " + reason + "，断开连接");
+        metrics.heartbeatTimedOut();
+        abort();
+    }
+
+    /**
+     * 记录读到了数据，子类在每次成功读取后调用
+     */
+    protected final void touch() {
+        lastReadNanos = System.nanoTime();
+    }
+
+    /**
+     * 处理客户端发来的一行文本
+     * 第一行是用户名或新协议的握手，之后的每一行是聊天消息或频道指令：
+     * /join 频道、/part 频道、/chan 频道 消息
+     * 握手成功后子类应改为读取帧并交给 {@link #handleFrame}
+     */
+    protected void handleLine(String line) {
+        if (!isRunning()) {
+            return;
+        }
+        if (username == null) {
+            if (line.isEmpty()) {
+                // 新客户端探测旧版服务端用的空行，见 IRCProtocol
+                return;
+            }
+            if (line.startsWith(IRCProtocol.HANDSHAKE_PREFIX)) {
+                handshake(line.substring(IRCProtocol.HANDSHAKE_PREFIX.length()));
+            } else {
+                login(line, null);
+            }
+            return;
+        }
+        metrics.messageReceived();
+        if (!acquire()) {
+            return;
+        }
+        if (line.startsWith("/") && handleChannelCommand(line)) {
+            return;
+        }
+        server.broadcast(username, line);
+    }
+
+    /**
+     * 处理客户端发来的一帧
+     * @param data 帧内容（不含长度和操作码）所在的数组，只在调用期间有效
+     */
+    protected void handleFrame(byte opcode, byte[] data, int offset, int length) {
+        if (!isRunning() || username == null || opcode == IRCProtocol.OP_PONG) {
+            // 心跳回应在读取时已经记录，不计入消息数也不经过限流
+            return;
+        }
+        metrics.messageReceived();
+        if (!acquire()) {
+            return;
+        }
+        switch (opcode) {
+            case IRCProtocol.OP_CHAT:
+                String text = checkText(new String(data, offset, length, StandardCharsets.UTF_8));
+                if (text != null) {
+                    server.broadcast(username, text);
                 }
+                break;
+            case IRCProtocol.OP_JOIN:
+                joinChannel(new String(data, offset, length, StandardCharsets.UTF_8));
+                break;
+            case IRCProtocol.OP_PART:
+                partChannel(new String(data, offset, length, StandardCharsets.UTF_8));
+                break;
+            case IRCProtocol.OP_CHANNEL_CHAT:
+                ByteBuffer body = ByteBuffer.wrap(data, offset, length);
+                int channelLength;
+                try {
+                    channelLength = IRCProtocol.readVarint(body);
+                } catch (IOException e) {
+                    channelLength = -1;
+                }
+                if (channelLength < 0 || channelLength > body.remaining()) {
+                    ServerLog.warn("客户端 " + username + " 发送的频道消息格式不正确，已忽略");
+                    return;
+                }
+                String channel = checkChannel(new String(data, body.position(), channelLength, StandardCharsets.UTF_8));
+                int textStart = body.position() + channelLength;
+                String channelText = checkText(new String(data, textStart, offset + length - textStart, StandardCharsets.UTF_8));
+                if (channel != null && channelText != null) {
+                    server.broadcastToChannel(this, channel, channelText);
+                }
+                break;
+            default:
+                // 未知的操作码，可能来自更新版本的客户端，忽略
+                break;
+        }
+    }
+
+    /**
+     * 新协议的握手："用户名 [功能...]"
+     * 带有有效的恢复令牌时恢复进程移交前的会话，不回放聊天记录也不通知其他用户
+     */
+    private void handshake(String request) {
+        String[] parts = request.trim().split("\\s+");
+        boolean deflate = false;
+        String resumeToken = null;
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].equals(IRCProtocol.FEATURE_DEFLATE)) {
+                deflate = true;
+            } else if (parts[i].equals(IRCProtocol.FEATURE_PING)) {
+                pingSupported = true;
+            } else if (parts[i].startsWith(IRCProtocol.FEATURE_RESUME + "=")) {
+                resumeToken = parts[i].substring(IRCProtocol.FEATURE_RESUME.length() + 1);
             }
-        } catch (SocketException e) {
-            // 套接字关闭或连接重置，这通常发生在服务器重启或客户端断开时
-            System.out.println("客户端连接断开: " + (username != null ? username : "未知用户"));
-        } catch (IOException e) {
-            // 其他IO异常
-            System.out.println("客户端连接异常: " + (username != null ? username : "未知用户") + " - " + e.getMessage());
-        } finally {
+        }
+        Set<String> resumedChannels = resumeToken != null ? server.claimSession(parts[0], resumeToken) : null;
+        ServerConfig config = server.getConfig();
+        deflate &= config.isCompressionEnabled();
+        // 先切换协议再回复，之后入队的消息都按帧编码
+        if (deflate) {
+            compressor = new FrameCompressor(config.getCompressionThreshold(), metrics);
+        }
+        framed = true;
+        StringBuilder reply = new StringBuilder(IRCProtocol.HANDSHAKE_OK);
+        if (deflate) {
+            reply.append(' ').append(IRCProtocol.FEATURE_DEFLATE);
+        }
+        if (pingSupported && config.getHeartbeatIntervalMillis() > 0) {
+            reply.append(' ').append(IRCProtocol.FEATURE_PING);
+        }
+        if (resumedChannels != null) {
+            reply.append(' ').append(IRCProtocol.FEATURE_RESUME);
+        }
+        send(reply.length() == IRCProtocol.HANDSHAKE_OK.length() ? HANDSHAKE_OK : OutboundMessage.raw(reply.toString()));
+        login(parts[0], resumedChannels);
+    }
+
+    /**
+     * 每条消息在广播之前先经过限流，超过速率的消息直接丢弃
+     * 每次被限流只通知发送者一次，避免通知本身又占满发送队列
+     */
+    private boolean acquire() {
+        if (rateLimiter == null || rateLimiter.tryAcquire()) {
+            throttleNotified = false;
+            return true;
+        }
+        metrics.messageThrottled();
+        if (!throttleNotified) {
+            throttleNotified = true;
+            ServerLog.info("用户 " + username + " 发送消息过快，已限流");
+            sendMessage("&c[OpticsValleyIRC] 你发送消息过快，部分消息未被发送，请稍后再试");
+        }
+        return false;
+    }
+
+    /**
+     * @param resumedChannels 恢复会话时需要重新加入的频道，新会话为 null
+     */
+    private void login(String name, Set<String> resumedChannels) {
+        if (name.trim().isEmpty()) {
             disconnect();
+            return;
         }
+        username = name;
+        metrics.recordLogin(System.nanoTime() - acceptedAt);
+        server.addClient(username, this, resumedChannels);
     }
 
-    public void sendMessage(String message) {
-        try {
-            if (out != null && !socket.isClosed()) {
-                out.println(message);
-                out.flush(); // 确保消息立即发送
+    /**
+     * @return false 表示不是频道指令，按普通聊天消息处理
+     */
+    private boolean handleChannelCommand(String line) {
+        String[] parts = line.split("\\s+", 3);
+        String command = parts[0].toLowerCase();
+        if (!command.equals("/join") && !command.equals("/part") && !command.equals("/chan")) {
+            return false;
+        }
+
+        String channel = checkChannel(parts.length > 1 ? parts[1] : null);
+        if (channel == null) {
+            return true;
+        }
+        switch (command) {
+            case "/join":
+                server.joinChannel(this, channel);
+                break;
+            case "/part":
+                server.partChannel(this, channel);
+                break;
+            default:
+                if (parts.length > 2) {
+                    server.broadcastToChannel(this, channel, parts[2]);
+                }
+                break;
+        }
+        return true;
+    }
+
+    private void joinChannel(String name) {
+        String channel = checkChannel(name);
+        if (channel != null) {
+            server.joinChannel(this, channel);
+        }
+    }
+
+    private void partChannel(String name) {
+        String channel = checkChannel(name);
+        if (channel != null) {
+            server.partChannel(this, channel);
+        }
+    }
+
+    /**
+     * @return 规范化后的频道名，无效时通知客户端并返回 null
+     */
+    private String checkChannel(String name) {
+        String channel = name != null ? ChannelRegistry.normalize(name) : null;
+        if (channel == null) {
+            sendMessage("&c[OpticsValleyIRC] 频道名无效，只能包含字母、数字、下划线和减号，最长32个字符");
+        }
+        return channel;
+    }
+
+    /**
+     * 帧中的文本不像按行读取那样以换行结束，可能夹带换行等控制字符，
+     * 原样广播会在旧协议的客户端和聊天记录中伪造出额外的行，因此整条丢弃
+     * @return 文本本身，含有控制字符时通知客户端并返回 null
+     */
+    private String checkText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isISOControl(text.charAt(i))) {
+                ServerLog.warn("客户端 " + username + " 发送的消息含有控制字符，已忽略");
+                sendMessage("&c[OpticsValleyIRC] 消息不能包含换行等控制字符");
+                return null;
             }
-        } catch (Exception e) {
-            // 发送消息失败，可能是连接已关闭
-            System.out.println("发送消息给 " + username + " 失败: " + e.getMessage());
+        }
+        return text;
+    }
+
+    public boolean isInChannel(String channel) {
+        return channels.contains(channel);
+    }
+
+    public Set<String> getChannels() {
+        return channels;
+    }
+
+    void addChannel(String channel) {
+        channels.add(channel);
+    }
+
+    void removeChannel(String channel) {
+        channels.remove(channel);
+    }
+
+    /**
+     * 是否使用二进制帧协议，旧协议的客户端不支持恢复会话
+     */
+    public boolean isFramed() {
+        return framed;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isRunning() {
+        return isRunning.get();
+    }
+
+    public void sendMessage(String message) {
+        send(OutboundMessage.of(message));
+    }
+
+    /**
+     * 把已编码的消息放入发送队列，不会阻塞调用线程
+     * 广播时同一个 {@link OutboundMessage} 会被所有接收者共享
+     */
+    public void send(OutboundMessage message) {
+        if (!isRunning()) {
+            return;
+        }
+        if (!outbound.offer(message)) {
+            ServerLog.info("客户端 " + username + " 接收过慢，发送队列已满，断开连接");
+            recordSendFailure();
             disconnect();
+            return;
         }
+        scheduleFlush();
+    }
+
+    /**
+     * 投递一条广播，回放聊天记录之前先暂存，回放中已有的聊天消息不再发送
+     * @param sequence 消息在聊天记录中的序号，没有记录的消息为 0
+     */
+    void deliver(OutboundMessage message, long sequence) {
+        if (pendingDeliveries != null) {
+            synchronized (this) {
+                List<Delivery> pending = pendingDeliveries;
+                if (pending != null) {
+                    pending.add(new Delivery(message, sequence));
+                    return;
+                }
+            }
+        }
+        if (sequence == 0 || sequence > replayedUpTo) {
+            send(message);
+        }
+    }
+
+    /**
+     * 登录时在加入广播列表之前调用，之后收到的广播暂存到 {@link #finishReplay} 为止
+     */
+    void beginReplay() {
+        pendingDeliveries = new ArrayList<>();
+    }
+
+    /**
+     * 在加入广播列表之后取回放并发送：之后记录的消息一定会投递到这个连接，之前记录的都在回放中，
+     * 暂存的和之后收到的广播按序号去掉回放中已有的，回放总是在这些广播之前
+     */
+    void finishReplay(MessageHistory history) {
+        MessageHistory.Snapshot snapshot = history.snapshot();
+        synchronized (this) {
+            if (snapshot.replay != null) {
+                send(snapshot.replay);
+                replayedUpTo = snapshot.sequence;
+            }
+            for (Delivery delivery : pendingDeliveries) {
+                if (delivery.sequence == 0 || delivery.sequence > replayedUpTo) {
+                    send(delivery.message);
+                }
+            }
+            pendingDeliveries = null;
+        }
+    }
+
+    /**
+     * 记录一次发送失败，同时计入服务器统计
+     */
+    protected void recordSendFailure() {
+        sendFailures.incrementAndGet();
+        metrics.sendFailed();
+    }
+
+    /**
+     * 该连接的发送失败次数，包括被丢弃的消息
+     */
+    public long getSendFailures() {
+        return sendFailures.get() + outbound.getDroppedCount();
+    }
+
+    /**
+     * 安排写线程把发送队列中的消息写出
+     */
+    protected abstract void scheduleFlush();
+
+    /**
+     * 发送断开通知并关闭底层连接，只会被调用一次
+     */
+    protected abstract void closeConnection();
+
+    /**
+     * 断开一个可能已经死掉的连接，不能阻塞调用线程（时间轮线程）
+     * 默认与 {@link #disconnect()} 相同，写出断开通知可能阻塞的子类需要覆盖
+     */
+    protected void abort() {
+        disconnect();
     }
 
     public void disconnect() {
-        if (!isRunning) {
+        if (!isRunning.compareAndSet(true, false)) {
             // 防止多次调用
             return;
         }
-        
-        isRunning = false;
+        metrics.connectionClosed();
+        TimerWheel.Timeout timeout = heartbeat;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
         try {
-            if (username != null) {
-                server.removeClient(username);
+            String name = username;
+            if (name != null) {
+                server.removeClient(name, this);
                 username = null;
             }
-            
-            // 关闭资源前，发送一个断开连接的通知
-            if (out != null) {
-                try {
-                    out.println("&c[OpticsValleyIRC] 与服务器的连接已断开");
-                    out.flush();
-                } catch (Exception ignored) {
-                    // 忽略发送断开通知时的异常
-                }
-                
-                out.close();
-                out = null;
-            }
-            
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException ignored) {
-                    // 忽略关闭输入流时的异常
-                }
-                in = null;
-            }
-            
-            if (socket != null && !socket.isClosed()) {
-                try {
-                    socket.close();
-                } catch (IOException ignored) {
-                    // 忽略关闭套接字时的异常
-                }
-                socket = null;
-            }
+            closeConnection();
         } catch (Exception e) {
-            System.out.println("关闭连接时出错: " + e.getMessage());
+            ServerLog.warn("关闭连接时出错: " + e.getMessage());
         }
     }
-} 
\ No newline at end of file
+}
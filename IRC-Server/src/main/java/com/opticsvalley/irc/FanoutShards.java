@@ -0,0 +1,331 @@
+package com.opticsvalley.irc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 把客户端分成若干分片，每个分片由一个工作线程独占，广播时同时交给所有分片并行投递
+ * 每个分片的任务队列是先进先出的，同一个发送者先后提交的广播在每个客户端上的顺序不变；
+ * 加入和移除客户端也作为任务在分片线程上执行，成员列表不需要加锁。
+ * 分片线程自己提交的任务（例如投递时发送队列溢出断开慢客户端，随之移除客户端和广播离开通知）
+ * 不进入队列，先放在该线程的延后列表中，当前任务完成后再依次执行或交给目标分片，
+ * 分片线程不会因为等待自己或其他分片的队列腾出位置而互相卡死。
+ * 只有一个分片时不启动工作线程，直接在调用线程中投递
+ */
+final class FanoutShards {
+    static final int QUEUE_CAPACITY = 65536;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ServerMetrics metrics;
+    private final Shard[] shards;
+    // 单分片时使用，由调用线程直接遍历
+    private final Set<ClientHandler> members;
+    // 当前线程所属的分片，不是分片线程时为 null
+    private final ThreadLocal<Shard> currentShard = new ThreadLocal<>();
+
+    /**
+     * 一次广播，最后一个完成投递的分片记录耗时
+     */
+    private static final class Broadcast {
+        final OutboundMessage message;
+        final long sequence;
+        final long start = System.nanoTime();
+        final AtomicInteger remaining;
+
+        Broadcast(OutboundMessage message, long sequence, int shards) {
+            this.message = message;
+            this.sequence = sequence;
+            this.remaining = new AtomicInteger(shards);
+        }
+    }
+
+    /**
+     * 分片线程提交给某个分片、等待执行的任务
+     */
+    private static final class Deferred {
+        final Shard target;
+        final Runnable task;
+
+        Deferred(Shard target, Runnable task) {
+            this.target = target;
+            this.task = task;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        private final MpscRingBuffer<Runnable> tasks = new MpscRingBuffer<>(QUEUE_CAPACITY);
+        // 只由分片线程访问
+        private final List<ClientHandler> clients = new ArrayList<>();
+        private final ArrayDeque<Deferred> deferred = new ArrayDeque<>();
+        private final Thread thread;
+        private volatile boolean sleeping;
+        private volatile boolean running = true;
+
+        Shard(int index) {
+            thread = new Thread(this, "IRC-Fanout-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * 队列满时等待分片线程腾出位置，广播不会被丢弃
+         * 分片线程自己提交的任务放进延后列表，见 {@link #defer}
+         */
+        void submit(Runnable task) {
+            Shard self = currentShard.get();
+            if (self != null) {
+                self.defer(this, task);
+                return;
+            }
+            while (!offer(task)) {
+                LockSupport.unpark(thread);
+                Thread.yield();
+            }
+        }
+
+        private boolean offer(Runnable task) {
+            if (!tasks.offer(task)) {
+                return false;
+            }
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+            return true;
+        }
+
+        /**
+         * 在分片线程上提交任务：当前任务还在遍历客户端列表，不能立即执行，队列满时也不能等待
+         * 全部按提交顺序放进延后列表，由 {@link #runDeferred} 处理
+         */
+        private void defer(Shard target, Runnable task) {
+            deferred.add(new Deferred(target, task));
+        }
+
+        /**
+         * 按提交顺序处理延后的任务：给自己的直接执行，给其他分片的放进对方的队列
+         * 对方队列已满时停下，先回去处理自己的队列，让对方也能继续，稍后再试
+         */
+        private void runDeferred() {
+            Deferred next;
+            while ((next = deferred.peek()) != null) {
+                if (next.target == this) {
+                    deferred.poll();
+                    execute(next.task);
+                } else if (next.target.offer(next.task)) {
+                    deferred.poll();
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void execute(Runnable task) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                ServerLog.warn("广播时出错: " + e.getMessage());
+            }
+        }
+
+        void deliver(Broadcast broadcast) {
+            OutboundMessage message = broadcast.message;
+            long sequence = broadcast.sequence;
+            for (int i = 0, n = clients.size(); i < n; i++) {
+                clients.get(i).deliver(message, sequence);
+            }
+            complete(broadcast);
+        }
+
+        @Override
+        public void run() {
+            currentShard.set(this);
+            while (running) {
+                Runnable task = tasks.poll();
+                if (task != null) {
+                    execute(task);
+                    runDeferred();
+                    continue;
+                }
+                if (!deferred.isEmpty()) {
+                    // 等待其他分片的队列腾出位置
+                    runDeferred();
+                    Thread.yield();
+                    continue;
+                }
+                // 先声明要休眠再检查队列，生产者入队后看到 sleeping 才需要唤醒
+                sleeping = true;
+                if (tasks.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+    }
+
+    FanoutShards(int shardCount, ServerMetrics metrics) {
+        this.metrics = metrics;
+        if (shardCount <= 1) {
+            this.shards = null;
+            this.members = ConcurrentHashMap.newKeySet();
+            return;
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+        this.members = null;
+    }
+
+    int getShardCount() {
+        return shards != null ? shards.length : 1;
+    }
+
+    void add(ClientHandler client) {
+        add(client, null);
+    }
+
+    /**
+     * @param added 加入之后执行，在客户端所在的分片线程上，只有一个分片时在调用线程上；可以为 null
+     */
+    void add(ClientHandler client, Runnable added) {
+        if (shards == null) {
+            members.add(client);
+            if (added != null) {
+                added.run();
+            }
+            return;
+        }
+        Shard shard = shardOf(client);
+        shard.submit(() -> {
+            shard.clients.add(client);
+            if (added != null) {
+                added.run();
+            }
+        });
+    }
+
+    void remove(ClientHandler client) {
+        if (shards == null) {
+            members.remove(client);
+            return;
+        }
+        Shard shard = shardOf(client);
+        shard.submit(() -> shard.clients.remove(client));
+    }
+
+    /**
+     * 投递给所有客户端
+     */
+    void publish(OutboundMessage message) {
+        publish(message, 0);
+    }
+
+    /**
+     * @param sequence 消息在聊天记录中的序号，见 {@link ClientHandler#deliver}
+     */
+    void publish(OutboundMessage message, long sequence) {
+        if (shards == null) {
+            long start = System.nanoTime();
+            for (ClientHandler client : members) {
+                client.deliver(message, sequence);
+            }
+            metrics.recordFanout(System.nanoTime() - start);
+            return;
+        }
+        Broadcast broadcast = new Broadcast(message, sequence, shards.length);
+        for (Shard shard : shards) {
+            shard.submit(() -> shard.deliver(broadcast));
+        }
+    }
+
+    /**
+     * 投递给指定的客户端（如频道成员），同样经过各自的分片，与全局广播保持顺序
+     */
+    void publish(OutboundMessage message, Collection<ClientHandler> recipients) {
+        if (shards == null) {
+            long start = System.nanoTime();
+            for (ClientHandler client : recipients) {
+                client.send(message);
+            }
+            metrics.recordFanout(System.nanoTime() - start);
+            return;
+        }
+        List<List<ClientHandler>> buckets = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            buckets.add(null);
+        }
+        int used = 0;
+        for (ClientHandler client : recipients) {
+            int index = indexOf(client);
+            List<ClientHandler> bucket = buckets.get(index);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                buckets.set(index, bucket);
+                used++;
+            }
+            bucket.add(client);
+        }
+        if (used == 0) {
+            return;
+        }
+        Broadcast broadcast = new Broadcast(message, 0, used);
+        for (int i = 0; i < shards.length; i++) {
+            List<ClientHandler> bucket = buckets.get(i);
+            if (bucket != null) {
+                shards[i].submit(() -> {
+                    for (ClientHandler client : bucket) {
+                        client.send(message);
+                    }
+                    complete(broadcast);
+                });
+            }
+        }
+    }
+
+    /**
+     * 等待之前提交的任务全部完成，用于关闭前确保通知已经放入各个客户端的发送队列
+     * @return false 表示超时
+     */
+    boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        if (shards == null) {
+            return true;
+        }
+        CountDownLatch latch = new CountDownLatch(shards.length);
+        for (Shard shard : shards) {
+            shard.submit(latch::countDown);
+        }
+        return latch.await(timeout, unit);
+    }
+
+    void shutdown() {
+        if (shards == null) {
+            return;
+        }
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+    }
+
+    private void complete(Broadcast broadcast) {
+        if (broadcast.remaining.decrementAndGet() == 0) {
+            metrics.recordFanout(System.nanoTime() - broadcast.start);
+        }
+    }
+
+    int indexOf(ClientHandler client) {
+        return Math.floorMod(System.identityHashCode(client), shards.length);
+    }
+
+    private Shard shardOf(ClientHandler client) {
+        return shards[indexOf(client)];
+    }
+}
@@ -0,0 +1,421 @@
+package com.opticsvalley.irc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多个服务端节点互联，共享同一个聊天
+ * 本节点产生的聊天、频道消息、加入/离开和封禁事件发给所有相连的节点，收到的事件在本地生效后再转发给其他节点，
+ * 节点之间可以是任意拓扑。每个事件带有全局唯一的ID（来源节点 + 序号），已经见过的ID直接丢弃，
+ * 因此环路和重复的连接都不会造成重复投递，来源是本节点的事件也会被丢弃。
+ *
+ * 节点之间的连接先互相发送一行 "OVIRC-FED/1 节点ID 密钥"，之后使用与客户端相同的帧格式：
+ * [varint 长度][操作码][varint 长度 + 来源节点][varint 序号][字段...]，除最后一个字段外每个字段前面带 varint 长度
+ */
+final class Federation {
+    static final String HANDSHAKE_PREFIX = "OVIRC-FED/1 ";
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+    // 记住最近多少个事件ID用于去重
+    private static final int SEEN_CAPACITY = 65536;
+    private static final int RECONNECT_MIN_MILLIS = 2000;
+    private static final int RECONNECT_JITTER_MILLIS = 2000;
+
+    private static final byte EV_CHAT = 0x40;
+    private static final byte EV_CHANNEL_CHAT = 0x41;
+    private static final byte EV_JOIN = 0x42;
+    private static final byte EV_LEAVE = 0x43;
+    private static final byte EV_BAN = 0x44;
+    private static final byte EV_UNBAN = 0x45;
+
+    private final IRCServer server;
+    private final ServerThreads threads;
+    private final String secret;
+    private final byte[] secretBytes;
+    // 本进程的节点ID，每次启动随机生成，重启后序号从头开始也不会与之前的ID冲突
+    private final String nodeId;
+    private final byte[] nodePrefix;
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<FederationLink> links = new CopyOnWriteArrayList<>();
+    // 最近见过的事件ID，按插入顺序淘汰
+    private final Map<String, Boolean> seen = new LinkedHashMap<String, Boolean>(SEEN_CAPACITY * 4 / 3, 0.75f) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SEEN_CAPACITY;
+        }
+    };
+    private final LongAdder received = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private ServerSocket listener;
+    private volatile boolean running = true;
+
+    Federation(IRCServer server, ServerThreads threads, String secret) {
+        this.server = server;
+        this.threads = threads;
+        this.secret = secret;
+        this.secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+        this.nodeId = Long.toHexString(new SecureRandom().nextLong());
+        byte[] id = nodeId.getBytes(StandardCharsets.UTF_8);
+        this.nodePrefix = new byte[IRCProtocol.varintSize(id.length) + id.length];
+        System.arraycopy(id, 0, nodePrefix, IRCProtocol.writeVarint(nodePrefix, 0, id.length), id.length);
+    }
+
+    /**
+     * 监听其他节点的连接，并主动连接配置的节点，断开后自动重连
+     * @param bindAddress 监听的本机地址，空表示所有网卡
+     * @param port 监听端口，0 表示只主动连接
+     * @param peers 逗号分隔的 主机:端口
+     */
+    void start(String bindAddress, int port, String peers) throws IOException {
+        if (port > 0) {
+            listener = new ServerSocket();
+            listener.bind(bindAddress.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(bindAddress, port));
+            threads.start("IRC-Federation-Acceptor", this::acceptLinks);
+            ServerLog.info("节点互联已在端口 " + listener.getLocalPort() + " 监听，节点ID " + nodeId);
+        }
+        for (String peer : peers.split(",")) {
+            String address = peer.trim();
+            if (address.isEmpty()) {
+                continue;
+            }
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0) {
+                ServerLog.warn("节点地址无效，应为 主机:端口 : " + address);
+                continue;
+            }
+            InetSocketAddress target;
+            try {
+                target = new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+            } catch (IllegalArgumentException e) {
+                ServerLog.warn("节点地址无效，应为 主机:端口 : " + address);
+                continue;
+            }
+            threads.start("IRC-Federation-" + address, () -> dial(target, address));
+        }
+    }
+
+    int getLocalPort() {
+        return listener != null ? listener.getLocalPort() : 0;
+    }
+
+    int getLinkCount() {
+        return links.size();
+    }
+
+    long getReceivedCount() {
+        return received.sum();
+    }
+
+    long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    long getDroppedCount() {
+        long dropped = 0;
+        for (FederationLink link : links) {
+            dropped += link.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    void chat(String username, String message) {
+        publish(EV_CHAT, username, message);
+    }
+
+    void channelChat(String channel, String username, String message) {
+        publish(EV_CHANNEL_CHAT, channel, username, message);
+    }
+
+    void joined(String username) {
+        publish(EV_JOIN, username);
+    }
+
+    void left(String username) {
+        publish(EV_LEAVE, username);
+    }
+
+    void ban(String username, String reason) {
+        publish(EV_BAN, username, reason);
+    }
+
+    void unban(String username) {
+        publish(EV_UNBAN, username);
+    }
+
+    void close() {
+        running = false;
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (IOException ignored) {
+                // 忽略关闭时的异常
+            }
+        }
+        for (FederationLink link : links) {
+            link.close();
+        }
+    }
+
+    /**
+     * 编码一次，发给所有相连的节点
+     */
+    private void publish(byte opcode, String... fields) {
+        if (links.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        body.write(opcode);
+        body.writeBytes(nodePrefix);
+        writeVarint(body, sequence.incrementAndGet());
+        for (int i = 0; i < fields.length; i++) {
+            byte[] bytes = fields[i].getBytes(StandardCharsets.UTF_8);
+            if (i < fields.length - 1) {
+                writeVarint(body, bytes.length);
+            }
+            body.writeBytes(bytes);
+        }
+        byte[] encoded = body.toByteArray();
+        byte[] frame = IRCProtocol.frame(encoded[0], null, encoded, 1, encoded.length - 1);
+        for (FederationLink link : links) {
+            link.send(frame);
+        }
+    }
+
+    /**
+     * 处理其他节点发来的事件：去重后转发给除来源连接外的所有节点，再在本地生效
+     */
+    void receive(FederationLink from, byte[] body) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        byte opcode = buffer.get();
+        String origin = readField(buffer);
+        long seq = readVarLong(buffer);
+        if (origin.equals(nodeId)) {
+            duplicates.increment();
+            return;
+        }
+        String id = origin + ':' + seq;
+        synchronized (seen) {
+            if (seen.put(id, Boolean.TRUE) != null) {
+                duplicates.increment();
+                return;
+            }
+        }
+        received.increment();
+
+        if (links.size() > 1) {
+            byte[] frame = IRCProtocol.frame(opcode, null, body, 1, body.length - 1);
+            for (FederationLink link : links) {
+                if (link != from) {
+                    link.send(frame);
+                }
+            }
+        }
+
+        switch (opcode) {
+            case EV_CHAT: {
+                String username = readField(buffer);
+                server.deliverChat(username, readRest(buffer));
+                break;
+            }
+            case EV_CHANNEL_CHAT: {
+                String channel = readField(buffer);
+                String username = readField(buffer);
+                server.deliverChannelChat(channel, username, readRest(buffer));
+                break;
+            }
+            case EV_JOIN:
+                server.remotePresence(readRest(buffer), true);
+                break;
+            case EV_LEAVE:
+                server.remotePresence(readRest(buffer), false);
+                break;
+            case EV_BAN: {
+                String username = readField(buffer);
+                server.applyBan(username, readRest(buffer));
+                break;
+            }
+            case EV_UNBAN:
+                server.applyUnban(readRest(buffer));
+                break;
+            default:
+                // 更新版本的节点发来的事件，只转发不处理
+                break;
+        }
+    }
+
+    void linkClosed(FederationLink link) {
+        if (links.remove(link)) {
+            ServerLog.info("与节点 " + link.getName() + " 的连接已断开");
+        }
+    }
+
+    private void acceptLinks() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (IOException e) {
+                if (running) {
+                    ServerLog.error("接受节点连接时出错", e);
+                }
+                continue;
+            }
+            String name = socket.getRemoteSocketAddress().toString();
+            threads.start("IRC-Federation-" + name, () -> {
+                FederationLink link = handshake(socket, name, false);
+                if (link != null) {
+                    link.run(threads);
+                }
+            });
+        }
+    }
+
+    /**
+     * 主动连接一个节点，断开后等待一段随机的时间重连
+     */
+    private void dial(InetSocketAddress target, String name) {
+        while (running) {
+            try {
+                Socket socket = new Socket();
+                socket.connect(target, HANDSHAKE_TIMEOUT_MILLIS);
+                FederationLink link = handshake(socket, name, true);
+                if (link != null) {
+                    link.run(threads);
+                }
+            } catch (IOException e) {
+                // 对方还没有启动，稍后重试
+            }
+            try {
+                Thread.sleep(RECONNECT_MIN_MILLIS + ThreadLocalRandom.current().nextInt(RECONNECT_JITTER_MILLIS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 双方互相发送握手行并校验密钥，主动连接的一方先发送
+     * @return 握手失败时返回 null，连接已关闭
+     */
+    private FederationLink handshake(Socket socket, String name, boolean initiator) {
+        try {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            byte[] hello = (HANDSHAKE_PREFIX + nodeId + " " + secret + "\n").getBytes(StandardCharsets.UTF_8);
+            if (initiator) {
+                out.write(hello);
+                out.flush();
+            }
+            String line = readLine(in);
+            if (line == null || !line.startsWith(HANDSHAKE_PREFIX)) {
+                throw new IOException("不是节点互联的握手");
+            }
+            String[] parts = line.substring(HANDSHAKE_PREFIX.length()).split(" ", 2);
+            String peerSecret = parts.length > 1 ? parts[1] : "";
+            // 按固定时间比较，不通过比较耗时泄露密钥的前缀
+            if (!MessageDigest.isEqual(peerSecret.getBytes(StandardCharsets.UTF_8), secretBytes)) {
+                throw new IOException("密钥不正确");
+            }
+            if (parts[0].equals(nodeId)) {
+                throw new IOException("连接到了本节点");
+            }
+            if (!initiator) {
+                out.write(hello);
+                out.flush();
+            }
+            socket.setSoTimeout(0);
+            // 握手行之后的数据由链路自己的缓冲流读取，这里逐字节读取握手行，不会多读
+            FederationLink link = new FederationLink(socket, this, name);
+            if (!running) {
+                socket.close();
+                return null;
+            }
+            links.add(link);
+            ServerLog.info("已与节点 " + name + " 建立连接（节点ID " + parts[0] + "）");
+            return link;
+        } catch (SocketTimeoutException e) {
+            ServerLog.warn("节点 " + name + " 握手超时");
+        } catch (IOException e) {
+            ServerLog.warn("节点 " + name + " 握手失败: " + e.getMessage());
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // 忽略关闭时的异常
+        }
+        return null;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return null;
+            }
+            if (line.size() >= 1024) {
+                throw new IOException("握手行过长");
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("事件格式不正确");
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("事件格式不正确");
+    }
+
+    private static String readField(ByteBuffer buffer) throws IOException {
+        int length = IRCProtocol.readVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("事件格式不正确");
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static String readRest(ByteBuffer buffer) {
+        String value = new String(buffer.array(), buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        buffer.position(buffer.limit());
+        return value;
+    }
+}
@@ -0,0 +1,126 @@
+package com.opticsvalley.irc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 与另一个服务端节点之间的一条连接
+ * 读取在调用 {@link #run} 的线程中进行，写出由单独的写线程从队列中取出，
+ * 一个慢的节点不会拖慢本节点的广播；队列满时丢弃最旧的事件
+ */
+final class FederationLink {
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final long WRITE_POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Socket socket;
+    private final Federation federation;
+    private final String name;
+    private final InputStream in;
+    private final OutputStream out;
+    private final OutboundQueue<byte[]> queue;
+    private final AtomicBoolean open = new AtomicBoolean(true);
+
+    FederationLink(Socket socket, Federation federation, String name) throws IOException {
+        this.socket = socket;
+        this.federation = federation;
+        this.name = name;
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.queue = new OutboundQueue<>(QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    /**
+     * 放入发送队列，所有连接共享同一份编码
+     */
+    void send(byte[] frame) {
+        if (open.get()) {
+            queue.offer(frame);
+        }
+    }
+
+    /**
+     * 启动写线程并在当前线程读取事件，直到连接断开
+     */
+    void run(ServerThreads threads) {
+        threads.start("IRC-Federation-Writer-" + name, this::writeLoop);
+        try {
+            byte[] frame;
+            while (open.get() && (frame = readFrame()) != null) {
+                federation.receive(this, frame);
+            }
+        } catch (IOException e) {
+            if (open.get()) {
+                ServerLog.warn("与节点 " + name + " 的连接出错: " + e.getMessage());
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private byte[] readFrame() throws IOException {
+        int length = IRCProtocol.readVarint(in);
+        if (length < 0) {
+            return null;
+        }
+        if (length == 0 || length > IRCProtocol.MAX_FRAME_BYTES) {
+            throw new IOException("帧长度无效: " + length);
+        }
+        byte[] body = in.readNBytes(length);
+        if (body.length < length) {
+            throw new EOFException("帧内容不完整");
+        }
+        return body;
+    }
+
+    private void writeLoop() {
+        try {
+            while (open.get()) {
+                byte[] frame = queue.poll(WRITE_POLL_NANOS);
+                if (frame == null) {
+                    continue;
+                }
+                // 把队列中已有的事件一起写出再 flush
+                do {
+                    out.write(frame);
+                } while ((frame = queue.poll()) != null);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (open.get()) {
+                ServerLog.warn("向节点 " + name + " 发送失败: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    void close() {
+        if (!open.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // 忽略关闭时的异常
+        }
+        queue.clear();
+        federation.linkClosed(this);
+    }
+}
@@ -0,0 +1,201 @@
+package com.opticsvalley.irc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * 单个连接的发送压缩
+ * 同一次写出的帧先攒在一起，达到阈值时整体压缩成一个压缩帧，否则原样发送，短小的交互消息不必付出压缩的开销。
+ * Deflater 在整个连接期间复用并带有预置字典，后面的消息可以引用前面出现过的内容；第一次需要压缩时才创建。
+ * 攒下的帧按帧的边界分成不超过 {@link #MAX_INPUT_BYTES} 的几段分别压缩：一次加入的多行消息（如聊天记录回放）
+ * 也不会生成超过客户端帧长度上限的压缩帧，客户端逐个解析压缩帧，一帧也不会被拆到两个压缩帧中。
+ * 只由该连接的写任务或事件循环使用，close 可能由其他线程调用，因此方法都加了锁；
+ * 阻塞的写出在锁外进行，不会占住虚拟线程的载体线程，也不会让 close 等待慢速的连接
+ */
+final class FrameCompressor {
+    // 单个压缩帧最多包含的原始字节数，保证压缩帧不超过客户端的帧长度上限
+    static final int MAX_INPUT_BYTES = 16 * 1024;
+
+    private final int threshold;
+    private final ServerMetrics metrics;
+    private Deflater deflater;
+    // 等待压缩的帧
+    private byte[] pending = new byte[1024];
+    private int pendingLength;
+    // 可以直接写出的数据：压缩帧或未压缩的帧
+    private byte[] output = new byte[1024];
+    private int outputLength;
+    // 与 output 轮换使用，writeTo 在锁外写出其中一个时另一个继续接收数据
+    private byte[] spare;
+    private byte[] compressed = new byte[1024];
+    private boolean closed;
+
+    FrameCompressor(int threshold, ServerMetrics metrics) {
+        this.threshold = threshold;
+        this.metrics = metrics;
+    }
+
+    synchronized void add(OutboundMessage message) {
+        if (closed) {
+            return;
+        }
+        int length = message.length(true);
+        if (message.isRaw()) {
+            // 原样发送的消息不能进入压缩流，先把前面的帧结束掉
+            seal();
+            output = ensureCapacity(output, outputLength + length);
+            message.copyFrameTo(output, outputLength);
+            outputLength += length;
+            return;
+        }
+        pending = ensureCapacity(pending, pendingLength + length);
+        message.copyFrameTo(pending, pendingLength);
+        pendingLength += length;
+        if (pendingLength >= MAX_INPUT_BYTES) {
+            seal();
+        }
+    }
+
+    /**
+     * 把已加入的帧写出，由调用方负责 flush
+     * @return 写出的字节数
+     */
+    int writeTo(OutputStream out) throws IOException {
+        byte[] data;
+        int length;
+        synchronized (this) {
+            seal();
+            length = outputLength;
+            if (length == 0) {
+                return 0;
+            }
+            data = output;
+            output = spare != null ? spare : new byte[data.length];
+            spare = null;
+            outputLength = 0;
+        }
+        out.write(data, 0, length);
+        synchronized (this) {
+            // 写出期间 output 可能已经扩容，留下较大的一个
+            if (spare == null || spare.length < data.length) {
+                spare = data;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 取出已加入的帧，用于非阻塞写出
+     * @return 归调用方所有的缓冲区，没有数据时返回 null
+     */
+    synchronized ByteBuffer drain() {
+        seal();
+        if (outputLength == 0) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(output, outputLength));
+        outputLength = 0;
+        return buffer;
+    }
+
+    /**
+     * 释放 Deflater 占用的本地内存，之后加入的消息会被忽略
+     */
+    synchronized void close() {
+        closed = true;
+        pendingLength = 0;
+        outputLength = 0;
+        spare = null;
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private void seal() {
+        if (pendingLength == 0) {
+            return;
+        }
+        if (pendingLength < threshold) {
+            copyToOutput(0, pendingLength);
+        } else {
+            int start = 0;
+            while (start < pendingLength) {
+                int end = start;
+                while (end < pendingLength) {
+                    int next = end + frameSize(pending, end);
+                    if (next - start > MAX_INPUT_BYTES && end > start) {
+                        break;
+                    }
+                    end = next;
+                }
+                if (end - start > MAX_INPUT_BYTES) {
+                    // 单独一帧就超过上限，压缩后可能超过客户端的帧长度上限，原样发送
+                    copyToOutput(start, end - start);
+                } else {
+                    compress(start, end - start);
+                }
+                start = end;
+            }
+        }
+        pendingLength = 0;
+    }
+
+    private void copyToOutput(int offset, int length) {
+        output = ensureCapacity(output, outputLength + length);
+        System.arraycopy(pending, offset, output, outputLength, length);
+        outputLength += length;
+    }
+
+    private void compress(int offset, int inputLength) {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            deflater.setDictionary(IRCProtocol.DEFLATE_DICTIONARY);
+        }
+        deflater.setInput(pending, offset, inputLength);
+        int length = 0;
+        while (true) {
+            // SYNC_FLUSH：输出缓冲区没有被填满说明这一段已全部输出
+            length += deflater.deflate(compressed, length, compressed.length - length, Deflater.SYNC_FLUSH);
+            if (length < compressed.length) {
+                break;
+            }
+            compressed = Arrays.copyOf(compressed, compressed.length * 2);
+        }
+
+        int bodyLength = 1 + length;
+        int frameLength = IRCProtocol.varintSize(bodyLength) + bodyLength;
+        output = ensureCapacity(output, outputLength + frameLength);
+        outputLength = IRCProtocol.writeVarint(output, outputLength, bodyLength);
+        output[outputLength++] = IRCProtocol.OP_COMPRESSED;
+        System.arraycopy(compressed, 0, output, outputLength, length);
+        outputLength += length;
+        metrics.bytesCompressed(inputLength, frameLength);
+    }
+
+    /**
+     * 帧都由本类写入，长度前缀总是完整的
+     * @return 包括长度前缀在内的整帧字节数
+     */
+    private static int frameSize(byte[] data, int offset) {
+        int length = 0;
+        int position = offset;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[position++];
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return position - offset + length;
+            }
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int required) {
+        if (required <= buffer.length) {
+            return buffer;
+        }
+        return Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+    }
+}
@@ -0,0 +1,148 @@
+package com.opticsvalley.irc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制帧协议（版本2）
+ * 客户端连接后先发送一行 "OVIRC/2 用户名"，服务端回复一行 "OVIRC/2 OK"，之后双方都只发送帧：
+ * [varint 长度][1字节操作码][内容]，长度包含操作码。文本一律为UTF-8。
+ * 握手行可以在用户名后附加空格分隔的功能名，服务端在应答中列出同意开启的功能，目前有 deflate、resume 和 ping。
+ * 第一行不是握手的客户端按旧的换行文本协议处理，第一行即用户名
+ * 新客户端会在握手行之前先发一个空行，旧版服务端收到空的第一行会直接断开，不会把握手行当作用户名登录，
+ * 因此登录之前的空行一律忽略
+ */
+final class IRCProtocol {
+    static final String HANDSHAKE_PREFIX = "OVIRC/2 ";
+    static final String HANDSHAKE_OK = "OVIRC/2 OK";
+    // 单帧（或旧协议单行）的最大字节数，超过则视为异常客户端
+    static final int MAX_FRAME_BYTES = 32 * 1024;
+
+    // 服务端 -> 客户端
+    /** 显示一条消息：文本 */
+    static final byte OP_MESSAGE = 0x01;
+    /** 连接即将断开：1字节原因 + 文本 */
+    static final byte OP_DISCONNECT = 0x02;
+    /** 使客户端崩溃：文本 */
+    static final byte OP_CRASH = 0x03;
+    /** 压缩的若干帧：同一连接上连续的 deflate 流（预置字典，每帧以 SYNC_FLUSH 结束），解压后为普通的帧 */
+    static final byte OP_COMPRESSED = 0x04;
+    /** 服务端即将移交进程：varint 建议的重连延迟（毫秒） + 恢复令牌，之后会收到重启原因的断开帧 */
+    static final byte OP_RESUME = 0x05;
+    /** 心跳：无内容，客户端收到后回复 {@link #OP_PONG} */
+    static final byte OP_PING = 0x06;
+
+    // 客户端 -> 服务端
+    /** 聊天消息：文本 */
+    static final byte OP_CHAT = 0x10;
+    /** 加入频道：频道名 */
+    static final byte OP_JOIN = 0x11;
+    /** 离开频道：频道名 */
+    static final byte OP_PART = 0x12;
+    /** 频道消息：varint 长度 + 频道名，其余为文本 */
+    static final byte OP_CHANNEL_CHAT = 0x13;
+    /** 心跳回应：无内容 */
+    static final byte OP_PONG = 0x14;
+
+    static final String FEATURE_DEFLATE = "deflate";
+    /** 握手时以 "resume=令牌" 的形式提交，应答中带有 resume 表示会话已恢复 */
+    static final String FEATURE_RESUME = "resume";
+    /** 客户端会回应心跳，服务端同意时定期检查连接是否还活着 */
+    static final String FEATURE_PING = "ping";
+    /**
+     * deflate 的预置字典：消息中最常见的片段，越常用的越靠后。必须与模组中的字典完全一致
+     */
+    static final byte[] DEFLATE_DICTIONARY = ("&7[#] 你已离开频道&b[#] 用户 加入了频道&7[#] 用户 离开了频道"
+            + "&c[OpticsValleyIRC] 你已被封禁，无法发送消息！原因: &7[OpticsValleyIRC] ---- 最近的聊天记录 ----"
+            + "&7[OpticsValleyIRC] 用户 已离开IRC&a[OpticsValleyIRC] 用户 已加入IRC"
+            + "&e[OpticsValleyIRC]&b[#]&a<>&r: &e[OpticsValleyIRC]&a<>&r: ").getBytes(StandardCharsets.UTF_8);
+
+    // 断开原因
+    static final byte REASON_CLOSED = 0;
+    static final byte REASON_SHUTDOWN = 1;
+    static final byte REASON_RESTART = 2;
+
+    private IRCProtocol() {
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return 写入后的位置
+     */
+    static int writeVarint(byte[] target, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            target[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * 从流中读取一个 varint，流在第一个字节前结束时返回 -1
+     */
+    static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("帧长度不完整");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("帧长度无效");
+    }
+
+    /**
+     * 从缓冲区读取一个 varint，数据不完整时返回 -1（位置已被移动，由调用方恢复）
+     */
+    static int readVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("帧长度无效");
+    }
+
+    /**
+     * 编码一帧：[varint 长度][操作码][prefix][content 的指定部分]
+     * @param prefix 操作码之后的固定字段，可以为 null
+     */
+    static byte[] frame(byte opcode, byte[] prefix, byte[] content, int offset, int length) {
+        int prefixLength = prefix != null ? prefix.length : 0;
+        int bodyLength = 1 + prefixLength + length;
+        byte[] frame = new byte[varintSize(bodyLength) + bodyLength];
+        int position = writeVarint(frame, 0, bodyLength);
+        frame[position++] = opcode;
+        if (prefixLength > 0) {
+            System.arraycopy(prefix, 0, frame, position, prefixLength);
+            position += prefixLength;
+        }
+        System.arraycopy(content, offset, frame, position, length);
+        return frame;
+    }
+}
@@ -3,26 +3,148 @@ package com.opticsvalley.irc;
 import javax.swing.*;
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IRCServer {
-    private static final int PORT = 16688;
     private static final String VERSION = "1.0.2";
+    // 移交进程时客户端的最短重连延迟，留给新进程启动的时间
+    private static final int RESUME_MIN_DELAY_MILLIS = 1000;
+    // 重新加载配置时替换
+    private volatile ServerConfig config;
     private ServerSocket serverSocket;
+    // NIO模式下监听用的通道，serverSocket 是它的适配对象
+    private ServerSocketChannel serverChannel;
+    private NioEventLoop[] eventLoops;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
     private final ConcurrentHashMap<String, ClientHandler> clients = new ConcurrentHashMap<>();
-    private final Set<String> bannedUsers = ConcurrentHashMap.newKeySet();
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    // 广播用的分片，与 clients 中的客户端相同
+    private final FanoutShards fanout;
+    // 所有连接的心跳和登录超时检查
+    private final TimerWheel timers = new TimerWheel("IRC-Timer", 100, TimeUnit.MILLISECONDS, 512);
+    private final ChannelRegistry channels = new ChannelRegistry();
+    private final MessageHistory history;
+    private volatile BanStore bans;
+    // 上一个进程移交过来、等待客户端恢复的会话
+    private final SessionHandoff handoff;
+    // 未开启聊天存档时为 null
+    private final ChatArchive archive;
+    // 未开启节点互联时为 null
+    private final Federation federation;
+    private final ServerThreads threads;
+    private final ExecutorService executorService;
+    private final PresenceAggregator presence;
+    private final ServerMetrics metrics;
     private final Scanner consoleInput = new Scanner(System.in);
-    private final ConcurrentHashMap<String, String> banReasons = new ConcurrentHashMap<>();
-    private ServerGUI gui;
+    private volatile ServerGUI gui;
     private volatile boolean isRunning = true;
     private Thread mainThread;
+    private final CountDownLatch shutdownLatch = new CountDownLatch(1);
 
     public IRCServer() throws IOException {
-        this.serverSocket = new ServerSocket(PORT);
-        System.out.println("OpticsValley IRC, Version: " + VERSION);
-        System.out.println("Service Started! PORT " + PORT);
+        this(ServerConfig.load());
+    }
+
+    public IRCServer(ServerConfig config) throws IOException {
+        this.config = config;
+        this.metrics = new ServerMetrics(this);
+        metrics.registerMBean();
+        this.fanout = new FanoutShards(config.getFanoutShards(), metrics);
+        this.history = new MessageHistory(config.getHistoryMessages(), config.getHistoryMaxBytes());
+        this.bans = new BanStore(Paths.get(config.getBanDirectory()), config.getBanCompactThreshold());
+        this.handoff = SessionHandoff.load(Paths.get(config.getHandoffFile()));
+        if (handoff.size() > 0) {
+            ServerLog.info("已载入 " + handoff.size() + " 个等待恢复的会话");
+        }
+        this.archive = config.isArchiveEnabled()
+                ? new ChatArchive(Paths.get(config.getArchiveDirectory()), config.getArchiveSegmentBytes(),
+                        config.getArchiveRetentionBytes(), config.getArchiveRetentionMillis(),
+                        config.getArchiveCommitMillis(), config.getArchiveCapacity())
+                : null;
+        this.threads = new ServerThreads(config.getThreadMode());
+        this.executorService = threads.newConnectionExecutor();
+        this.presence = new PresenceAggregator(this, config.getPresenceWindowMillis(), config.getPresenceThreshold());
+        if (config.getIoMode() == ServerConfig.IoMode.NIO) {
+            eventLoops = new NioEventLoop[config.getIoThreads()];
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new NioEventLoop(this, i);
+                eventLoops[i].start();
+            }
+        }
+        openServerSocket();
+        if (config.isFederationEnabled() && config.getFederationSecret().isEmpty()) {
+            // 没有密钥时任何能连上互联端口的主机都能冒充节点注入聊天和封禁
+            ServerLog.error("未设置 irc.federation.secret，节点互联不会开启", null);
+            federation = null;
+        } else if (config.isFederationEnabled()) {
+            federation = new Federation(this, threads, config.getFederationSecret());
+            federation.start(config.getFederationBind(), config.getFederationPort(), config.getFederationPeers());
+        } else {
+            federation = null;
+        }
+        ServerLog.info("OpticsValley IRC, Version: " + VERSION);
+        ServerLog.info("Service Started! PORT " + config.getPort() + " (" + describeIoMode() + describeFanout() + ")");
+    }
+
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    TimerWheel getTimers() {
+        return timers;
+    }
+
+    Federation getFederation() {
+        return federation;
+    }
+
+    FanoutShards getFanout() {
+        return fanout;
+    }
+
+    ChannelRegistry getChannelRegistry() {
+        return channels;
+    }
+
+    /**
+     * 实际监听的端口，配置为 0 时由系统分配
+     */
+    public int getLocalPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getOnlineCount() {
+        return clients.size();
+    }
+
+    private String describeIoMode() {
+        if (eventLoops != null) {
+            return "NIO, " + eventLoops.length + " I/O threads";
+        }
+        return threads.isVirtual() ? "blocking I/O, virtual threads" : "blocking I/O";
+    }
+
+    private String describeFanout() {
+        int shards = fanout.getShardCount();
+        return shards > 1 ? ", " + shards + " fanout shards" : "";
+    }
+
+    private void openServerSocket() throws IOException {
+        if (eventLoops != null) {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(config.getPort()));
+            serverSocket = serverChannel.socket();
+        } else {
+            serverSocket = new ServerSocket(config.getPort());
+        }
     }
 
     public void start() {
@@ -39,23 +161,51 @@ public class IRCServer {
         startCommandProcessor();
         
         // 处理客户端连接
-        while (isRunning && !serverSocket.isClosed()) {
+        acceptConnections();
+
+        // 重启后接受连接的循环在新线程中运行（虚拟线程是守护线程），主线程在这里等待服务器关闭，避免进程提前退出
+        try {
+            shutdownLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptConnections() {
+        // 重新监听时会换成新的套接字，旧的循环在旧套接字关闭后退出
+        ServerSocket listener = serverSocket;
+        ServerSocketChannel listenerChannel = serverChannel;
+        while (isRunning && !listener.isClosed()) {
             try {
-                Socket clientSocket = serverSocket.accept();
-                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                executorService.execute(clientHandler);
+                if (eventLoops != null) {
+                    // NIO模式：轮流分配给各个事件循环
+                    SocketChannel channel = listenerChannel.accept();
+                    eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)].register(channel);
+                } else {
+                    Socket clientSocket = listener.accept();
+                    SocketClientHandler clientHandler = new SocketClientHandler(clientSocket, this, executorService);
+                    executorService.execute(clientHandler);
+                    clientHandler.startHeartbeat(timers);
+                }
             } catch (IOException e) {
-                if (isRunning) {
+                if (isRunning && !listener.isClosed()) {
                     // 只有在服务器正常运行时才记录错误
                     // 避免在重启或关闭时的正常异常被记录
-                    e.printStackTrace();
+                    ServerLog.error("接受客户端连接时出错", e);
                 }
             }
         }
     }
 
+    /**
+     * 在单独的线程中接受连接，不启动GUI和控制台，供重启和基准测试使用
+     */
+    void startAcceptor() {
+        threads.start("IRC-Acceptor", this::acceptConnections);
+    }
+
     private void startCommandProcessor() {
-        new Thread(() -> {
+        threads.start("IRC-Console", () -> {
             while (isRunning) {
                 try {
                     if (consoleInput.hasNextLine()) {
@@ -67,7 +217,7 @@ public class IRCServer {
                     break;
                 }
             }
-        }).start();
+        });
     }
 
     public void processCommand(String command) {
@@ -84,7 +234,7 @@ public class IRCServer {
                 if (!arg.isEmpty()) {
                     banUser(arg, reason);
                 } else {
-                    System.out.println("用法: ban <用户名> [原因]");
+                    ServerLog.info("用法: ban <用户名> [原因]");
                 }
                 break;
             case "unban":
@@ -92,7 +242,7 @@ public class IRCServer {
                 if (!arg.isEmpty()) {
                     unbanUser(arg);
                 } else {
-                    System.out.println("用法: unban <用户名>");
+                    ServerLog.info("用法: unban <用户名>");
                 }
                 break;
             case "crash":
@@ -100,7 +250,7 @@ public class IRCServer {
                 if (!arg.isEmpty()) {
                     crashUser(arg);
                 } else {
-                    System.out.println("用法: crash <用户名>");
+                    ServerLog.info("用法: crash <用户名>");
                 }
                 break;
             case "opengui":
@@ -109,20 +259,89 @@ public class IRCServer {
                 break;
             case "stop":
             case "/stop":
-                System.out.println("正在执行停止服务命令...");
+                ServerLog.info("正在执行停止服务命令...");
                 shutdown();
                 break;
+            case "stats":
+            case "/stats":
+                if (arg.equalsIgnoreCase("reset")) {
+                    metrics.resetHistograms();
+                    ServerLog.info("已清空广播耗时和登录耗时统计");
+                } else {
+                    printStats();
+                }
+                break;
             case "reboot":
             case "/reboot":
-                System.out.println("正在执行重启服务命令...");
+                ServerLog.info("正在执行重启服务命令...");
                 restart();
                 break;
+            case "reload":
+            case "/reload":
+                reload();
+                break;
+            case "handoff":
+            case "/handoff":
+                handoff();
+                break;
             default:
-                System.out.println("Command not found!");
+                ServerLog.info("Command not found!");
                 break;
         }
     }
 
+    // 在控制台输出服务器统计
+    private void printStats() {
+        StringBuilder sb = new StringBuilder("=== 服务器统计 ===\n");
+        sb.append("连接: 活动 ").append(metrics.getActiveConnections())
+                .append("，在线用户 ").append(metrics.getOnlineUsers()).append('\n');
+        sb.append("消息: 收到 ").append(metrics.getMessagesIn()).append(" 条（").append(metrics.getMessagesInPerSecond())
+                .append(" 条/秒），发出 ").append(metrics.getMessagesOut()).append(" 条（").append(metrics.getMessagesOutPerSecond())
+                .append(" 条/秒）\n");
+        sb.append("写出: ").append(metrics.getBytesWritten() / 1024).append(" KB（")
+                .append(metrics.getBytesWrittenPerSecond() / 1024).append(" KB/秒）\n");
+        sb.append("广播耗时(微秒): 共 ").append(metrics.getBroadcasts()).append(" 次，p50 ").append(metrics.getFanoutP50Micros())
+                .append("，p99 ").append(metrics.getFanoutP99Micros()).append("，p99.9 ").append(metrics.getFanoutP999Micros())
+                .append("，max ").append(metrics.getFanoutMaxMicros()).append('\n');
+        sb.append("登录耗时(微秒): p50 ").append(metrics.getLoginP50Micros()).append("，p99 ").append(metrics.getLoginP99Micros())
+                .append("，max ").append(metrics.getLoginMaxMicros()).append('\n');
+        sb.append("发送失败: ").append(metrics.getSendFailures()).append(" 次（其中丢弃消息 ")
+                .append(metrics.getDroppedMessages()).append(" 条）");
+
+        // 列出发送失败最多的几个在线客户端
+        List<ClientHandler> failing = new ArrayList<>();
+        for (ClientHandler client : clients.values()) {
+            if (client.getSendFailures() > 0) {
+                failing.add(client);
+            }
+        }
+        failing.sort((a, b) -> Long.compare(b.getSendFailures(), a.getSendFailures()));
+        for (int i = 0; i < Math.min(5, failing.size()); i++) {
+            ClientHandler client = failing.get(i);
+            sb.append(i == 0 ? "，最多的客户端: " : ", ").append(client.getUsername()).append('(').append(client.getSendFailures()).append(')');
+        }
+        sb.append('\n');
+        sb.append("限流: ").append(metrics.getThrottledMessages()).append(" 条\n");
+        sb.append("心跳: 等待检查 ").append(timers.size()).append(" 个，超时断开 ")
+                .append(metrics.getHeartbeatTimeouts()).append(" 个连接\n");
+        long compressionIn = metrics.getCompressionBytesIn();
+        if (compressionIn > 0) {
+            sb.append("压缩: ").append(compressionIn / 1024).append(" KB -> ")
+                    .append(metrics.getCompressionBytesOut() / 1024).append(" KB\n");
+        }
+        sb.append("日志: 积压 ").append(metrics.getLogBacklog()).append(" 条，丢弃 ").append(metrics.getLogDropped()).append(" 条");
+        if (federation != null) {
+            sb.append('\n').append("节点互联: 连接 ").append(federation.getLinkCount()).append(" 个，收到事件 ")
+                    .append(federation.getReceivedCount()).append(" 条，重复 ").append(federation.getDuplicateCount())
+                    .append(" 条，丢弃 ").append(federation.getDroppedCount()).append(" 条");
+        }
+        if (archive != null) {
+            sb.append('\n').append("聊天存档: 已写入 ").append(archive.getWrittenCount()).append(" 条，丢弃 ")
+                    .append(archive.getDroppedCount()).append(" 条");
+        }
+        ServerLog.info(sb.toString());
+    }
+
     // 打开GUI
     private void openGUI() {
         SwingUtilities.invokeLater(() -> {
@@ -135,21 +354,39 @@ public class IRCServer {
             }
             updateGUIUserList();
         });
-        System.out.println("已重新打开GUI界面");
+        ServerLog.info("已重新打开GUI界面");
     }
 
-    // 更新GUI用户列表
+    // 用完整的用户列表刷新GUI，只在打开GUI或重启时使用
     private void updateGUIUserList() {
-        if (gui != null) {
+        ServerGUI current = gui;
+        if (current != null) {
             List<String> userList = new ArrayList<>(clients.keySet());
-            gui.updateUserList(userList);
+            current.updateUserList(userList);
+        }
+    }
+
+    // 通知GUI有用户加入或离开，GUI会合并后定时更新
+    private void notifyGUIUserChanged(String username, boolean online) {
+        ServerGUI current = gui;
+        if (current != null) {
+            current.userChanged(username, online);
         }
     }
 
     public void banUser(String username, String reason) {
-        bannedUsers.add(username);
-        banReasons.put(username, reason);
-        System.out.println("已封禁用户: " + username + " 原因: " + reason);
+        applyBan(username, reason);
+        if (federation != null) {
+            federation.ban(username, reason);
+        }
+    }
+
+    /**
+     * 在本节点封禁用户，其他节点发来的封禁事件也由这里处理
+     */
+    void applyBan(String username, String reason) {
+        bans.ban(username, reason);
+        ServerLog.info("已封禁用户: " + username + " 原因: " + reason);
         
         // 向用户发送封禁通知，但不断开连接
         ClientHandler client = clients.get(username);
@@ -161,17 +398,20 @@ public class IRCServer {
             broadcastSystemMessage(banMessage);
             
             // 输出到服务端控制台
-            System.out.println("系统消息: 用户 " + username + " 已被封禁，原因: " + reason);
+            ServerLog.info("系统消息: 用户 " + username + " 已被封禁，原因: " + reason);
         }
-        
-        // 更新GUI用户列表
-        updateGUIUserList();
     }
 
     public void unbanUser(String username) {
-        if (bannedUsers.remove(username)) {
-            String reason = banReasons.remove(username);
-            System.out.println("已解封用户: " + username);
+        applyUnban(username);
+        if (federation != null) {
+            federation.unban(username);
+        }
+    }
+
+    void applyUnban(String username) {
+        if (bans.unban(username) != null) {
+            ServerLog.info("已解封用户: " + username);
             
             // 向用户发送解封通知
             ClientHandler client = clients.get(username);
@@ -184,83 +424,273 @@ public class IRCServer {
             broadcastSystemMessage(unbanMessage);
             
             // 输出到服务端控制台
-            System.out.println("系统消息: 用户 " + username + " 已被解封");
+            ServerLog.info("系统消息: 用户 " + username + " 已被解封");
         } else {
-            System.out.println("该用户未被封禁: " + username);
+            ServerLog.info("该用户未被封禁: " + username);
         }
     }
 
     public boolean isUserBanned(String username) {
-        return bannedUsers.contains(username);
+        return bans.isBanned(username);
+    }
+
+    // 被封禁的用户只会收到消息未发送的提示和原因
+    private boolean rejectIfBanned(String username) {
+        String reason = bans.getReason(username);
+        if (reason == null) {
+            return false;
+        }
+        ClientHandler sender = clients.get(username);
+        if (sender != null) {
+            sender.sendMessage("&c[OpticsValleyIRC] 你已被封禁，无法发送消息！原因: " + reason);
+        }
+        return true;
     }
 
     public void broadcast(String username, String message) {
         // 检查发送者是否被封禁
-        if (isUserBanned(username)) {
-            // 如果被封禁，只通知该用户消息未发送，并显示原因
-            ClientHandler sender = clients.get(username);
-            if (sender != null) {
-                String reason = banReasons.getOrDefault(username, "未指定原因");
-                sender.sendMessage("&c[OpticsValleyIRC] 你已被封禁，无法发送消息！原因: " + reason);
-            }
+        if (rejectIfBanned(username)) {
             return;
         }
         
+        if (federation != null) {
+            federation.chat(username, message);
+        }
+        deliverChat(username, message);
+    }
+
+    /**
+     * 把聊天消息发给本节点的所有客户端，其他节点转发来的消息也由这里处理
+     */
+    void deliverChat(String username, String message) {
         try {
-            // 输出消息到服务端控制台
-            System.out.println("[" + username + "]: " + message);
+            // 消息只解析一次，控制台、存档和所有客户端共享各自的输出形式
+            ChatMessage chat = ChatMessage.chat(username, message);
+            ServerLog.message(chat);
+            if (archive != null) {
+                archive.append(chat);
+            }
             
-            // 正常广播消息
-            String formattedMessage = "&e[OpticsValleyIRC]&a<" + username + ">&r: " + message;
-            for (ClientHandler client : clients.values()) {
-                client.sendMessage(formattedMessage);
+            // 正常广播消息，只编码一次，所有客户端共享
+            OutboundMessage payload = chat.getOutbound();
+            // 只在记录时短暂持有聊天记录的锁，登录时按序号去掉回放中已有的消息，见 ClientHandler#finishReplay
+            long sequence = history.add(payload);
+            fanout.publish(payload, sequence);
+        } catch (Exception e) {
+            ServerLog.warn("广播消息时出错: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 向频道发送消息，只有频道成员会收到
+     */
+    public void broadcastToChannel(ClientHandler sender, String channel, String message) {
+        String username = sender.getUsername();
+        if (username == null || rejectIfBanned(username)) {
+            return;
+        }
+        if (!sender.isInChannel(channel)) {
+            sender.sendMessage("&c[OpticsValleyIRC] 你不在频道 #" + channel + " 中，请先加入频道");
+            return;
+        }
+        
+        if (federation != null) {
+            federation.channelChat(channel, username, message);
+        }
+        deliverChannelChat(channel, username, message);
+    }
+
+    /**
+     * 把频道消息发给本节点的频道成员，其他节点转发来的消息也由这里处理
+     */
+    void deliverChannelChat(String channel, String username, String message) {
+        try {
+            ChatMessage chat = ChatMessage.channel(channel, username, message);
+            ServerLog.message(chat);
+            if (archive != null) {
+                archive.append(chat);
             }
+            
+            fanout.publish(chat.getOutbound(), channels.getMembers(channel));
         } catch (Exception e) {
-            System.out.println("广播消息时出错: " + e.getMessage());
+            ServerLog.warn("发送频道消息时出错: " + e.getMessage());
+        }
+    }
+
+    public void joinChannel(ClientHandler client, String channel) {
+        String username = client.getUsername();
+        if (username == null || !addMembership(client, channel)) {
+            return;
+        }
+        ServerLog.info("用户 " + username + " 加入频道 #" + channel);
+        
+        OutboundMessage notice = OutboundMessage.of("&b[#" + channel + "] 用户 " + username + " 加入了频道");
+        fanout.publish(notice, channels.getMembers(channel));
+    }
+
+    /**
+     * 把连接加入频道索引并记在连接上
+     * 断开时按连接上记录的频道退出，如果连接恰好在这两步之间断开，清理会漏掉这个频道，
+     * 因此记录之后再检查一次，连接已断开时由这里撤销
+     * @return false 表示已在频道中或连接已断开
+     */
+    private boolean addMembership(ClientHandler client, String channel) {
+        if (!channels.join(channel, client)) {
+            return false;
+        }
+        client.addChannel(channel);
+        if (!client.isRunning()) {
+            channels.part(channel, client);
+            client.removeChannel(channel);
+            return false;
+        }
+        return true;
+    }
+
+    public void partChannel(ClientHandler client, String channel) {
+        String username = client.getUsername();
+        if (!channels.part(channel, client)) {
+            return;
         }
+        client.removeChannel(channel);
+        ServerLog.info("用户 " + username + " 离开频道 #" + channel);
+        
+        client.sendMessage("&7[#" + channel + "] 你已离开频道");
+        OutboundMessage notice = OutboundMessage.of("&7[#" + channel + "] 用户 " + username + " 离开了频道");
+        fanout.publish(notice, channels.getMembers(channel));
     }
 
     public void addClient(String username, ClientHandler handler) {
+        addClient(username, handler, null);
+    }
+
+    /**
+     * @param resumedChannels 恢复进程移交前的会话时需要重新加入的频道，新会话为 null
+     */
+    void addClient(String username, ClientHandler handler, Set<String> resumedChannels) {
+        boolean resumed = resumedChannels != null;
+        if (!resumed) {
+            // 先加入广播列表再回放最近的聊天记录（一次写出），回放之前收到的广播暂存在连接上，
+            // 保证历史消息在新消息之前，且不会漏掉也不会重复，见 ClientHandler#finishReplay
+            // 恢复的会话在客户端上还保留着之前的消息，不再回放
+            handler.beginReplay();
+        }
+        
         // 添加客户端，不管是否被封禁
-        clients.put(username, handler);
-        System.out.println("用户连接: " + username);
+        ClientHandler previous = clients.put(username, handler);
+        if (previous != null) {
+            fanout.remove(previous);
+        }
+        fanout.add(handler, resumed ? null : () -> handler.finishReplay(history));
         
-        // 通知所有用户有新用户加入
-        broadcastSystemMessage("&a[OpticsValleyIRC] 用户 " + username + " 已加入IRC");
+        if (resumed) {
+            ServerLog.info("用户恢复连接: " + username);
+            // 悄悄重新加入频道，客户端随后发来的加入请求不会再产生通知
+            for (String channel : resumedChannels) {
+                addMembership(handler, channel);
+            }
+        } else {
+            ServerLog.info("用户连接: " + username);
+            // 通知所有用户有新用户加入（短时间内的多条通知会被合并）
+            presence.joined(username);
+            if (federation != null) {
+                federation.joined(username);
+            }
+        }
         
         // 如果用户被封禁，发送封禁通知
-        if (isUserBanned(username)) {
-            String reason = banReasons.getOrDefault(username, "未指定原因");
-            handler.sendMessage("&c[OpticsValleyIRC] 你已被封禁，无法发送消息！原因: " + reason);
+        String reason = bans.getReason(username);
+        if (reason != null) {
+            // 和广播一样排在回放之后
+            handler.deliver(OutboundMessage.of("&c[OpticsValleyIRC] 你已被封禁，无法发送消息！原因: " + reason), 0);
         }
         
         // 更新GUI用户列表
-        updateGUIUserList();
+        notifyGUIUserChanged(username, true);
     }
 
-    public void removeClient(String username) {
-        clients.remove(username);
-        System.out.println("用户断开: " + username);
+    /**
+     * 其他节点上的用户加入或离开，只在本节点广播通知
+     */
+    void remotePresence(String username, boolean joined) {
+        if (joined) {
+            presence.joined(username);
+        } else {
+            presence.left(username);
+        }
+    }
+
+    /**
+     * 使用恢复令牌，见 {@link SessionHandoff#claim}
+     */
+    Set<String> claimSession(String username, String token) {
+        return handoff.claim(username, token);
+    }
+
+    public void removeClient(String username, ClientHandler handler) {
+        // 退出该连接加入的所有频道
+        for (String channel : handler.getChannels()) {
+            channels.part(channel, handler);
+        }
         
-        // 通知所有用户有用户离开
-        broadcastSystemMessage("&7[OpticsValleyIRC] 用户 " + username + " 已离开IRC");
+        fanout.remove(handler);
+        if (!clients.remove(username, handler)) {
+            // 同名用户已经用新连接登录，旧连接断开不算离开
+            return;
+        }
+        ServerLog.info("用户断开: " + username);
+        
+        // 通知所有用户有用户离开（短时间内的多条通知会被合并）
+        presence.left(username);
+        if (federation != null) {
+            federation.left(username);
+        }
         
         // 更新GUI用户列表
-        updateGUIUserList();
+        notifyGUIUserChanged(username, false);
     }
 
     // 广播系统消息（不带用户名）
     public void broadcastSystemMessage(String message) {
+        broadcastSystemMessage(ChatMessage.system(message));
+    }
+
+    /**
+     * 广播已编码的系统消息，用于重启、关闭等需要按协议区分的通知
+     */
+    void broadcastSystemMessage(OutboundMessage message) {
+        broadcastSystemMessage(ChatMessage.system(message));
+    }
+
+    private void broadcastSystemMessage(ChatMessage message) {
         try {
-            // 简化的控制台输出（不带颜色代码）
-            String plainMessage = message.replace("&c", "").replace("&a", "").replace("&e", "").replace("&r", "");
-            System.out.println("System: " + plainMessage);
-            
-            for (ClientHandler client : clients.values()) {
-                client.sendMessage(message);
+            // 简化的控制台输出（颜色代码由日志线程去除）
+            ServerLog.message(message);
+            if (archive != null) {
+                archive.append(message);
             }
+            
+            fanout(message.getOutbound());
         } catch (Exception e) {
-            System.out.println("广播系统消息时出错: " + e.getMessage());
+            ServerLog.warn("广播系统消息时出错: " + e.getMessage());
+        }
+    }
+
+    // 把同一份已编码的消息放入每个客户端的发送队列
+    private void fanout(OutboundMessage message) {
+        fanout.publish(message);
+    }
+
+    /**
+     * 等待已提交的广播全部放入客户端的发送队列
+     */
+    void awaitFanout() {
+        try {
+            if (!fanout.awaitIdle(5, TimeUnit.SECONDS)) {
+                ServerLog.warn("等待广播完成超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -271,92 +701,116 @@ public class IRCServer {
     public void crashUser(String username) {
         ClientHandler client = clients.get(username);
         if (client != null) {
-            System.out.println("正在使用户 " + username + " 的游戏崩溃...");
+            ServerLog.info("正在使用户 " + username + " 的游戏崩溃...");
             
             // 发送特殊字符序列，触发客户端崩溃
             // 使用一个特殊的崩溃标记，客户端会将其识别为崩溃指令
-            client.sendMessage("&c[CRASH_TRIGGER]&4");
+            client.send(OutboundMessage.crash("&c[CRASH_TRIGGER]&4"));
             
             // 输出到服务端控制台
-            System.out.println("已发送崩溃指令给用户: " + username);
+            ServerLog.info("已发送崩溃指令给用户: " + username);
             
             // 通知管理员
             broadcastSystemMessage("&4[OpticsValleyIRC] 管理员已使用户 " + username + " 的游戏崩溃");
         } else {
-            System.out.println("用户 " + username + " 不在线");
+            ServerLog.info("用户 " + username + " 不在线");
         }
     }
     
     /**
      * 重启服务器
+     * 重新加载配置和封禁列表，已建立的连接保持不变；只有端口变化时才重新监听，同样不会断开已有的连接。
+     * I/O模式和线程模式的变化需要用 handoff 换成新进程才能生效
      */
     public void restart() {
         try {
-            System.out.println("正在重启服务器...");
-            
-            // 通知所有客户端
-            broadcastSystemMessage("&c[OpticsValleyIRC] 服务器正在重启，所有连接将被断开");
-            
-            // 标记服务器为非运行状态，以停止主循环
-            isRunning = false;
-            
-            // 关闭所有客户端连接
-            for (ClientHandler client : clients.values()) {
-                client.disconnect();
-            }
-            
-            // 清空客户端列表
-            clients.clear();
+            ServerLog.info("正在重启服务器...");
+            ServerConfig previous = config;
+            reload();
             
-            // 关闭当前ServerSocket
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-            
-            // 等待一秒钟确保所有连接都已断开
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-            
-            // 重新创建ServerSocket
-            try {
-                serverSocket = new ServerSocket(PORT);
-                System.out.println("服务器已在端口 " + PORT + " 重新启动");
-            } catch (IOException e) {
-                System.out.println("重新创建ServerSocket失败: " + e.getMessage());
-                e.printStackTrace();
-                return;
+            if (config.getPort() != previous.getPort()) {
+                // 先打开新的监听套接字，失败时继续使用原来的
+                ServerSocket oldSocket = serverSocket;
+                try {
+                    openServerSocket();
+                } catch (IOException e) {
+                    ServerLog.error("重新创建ServerSocket失败: " + e.getMessage(), e);
+                    return;
+                }
+                oldSocket.close();
+                startAcceptor();
+                ServerLog.info("服务器已在端口 " + getLocalPort() + " 重新监听");
             }
             
-            // 重新设置状态
-            isRunning = true;
-            
             // 更新GUI
             updateGUIUserList();
             
-            // 启动主循环
-            Thread serverThread = new Thread(() -> {
-                while (isRunning && !serverSocket.isClosed()) {
-                    try {
-                        Socket clientSocket = serverSocket.accept();
-                        ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                        executorService.execute(clientHandler);
-                    } catch (IOException e) {
-                        if (isRunning) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
-            });
-            serverThread.start();
-            
-            System.out.println("服务器已重启完成，等待新的连接");
+            ServerLog.info("服务器已重启完成，保留了 " + clients.size() + " 个连接");
             
         } catch (Exception e) {
-            System.out.println("重启服务器时出错: " + e.getMessage());
-            e.printStackTrace();
+            ServerLog.error("重启服务器时出错: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 重新加载配置文件和封禁列表，并把新的配置应用到已有的连接
+     * 读取失败时保留原来的封禁列表
+     */
+    public void reload() {
+        ServerConfig updated = ServerConfig.load();
+        try {
+            bans = bans.reopen(Paths.get(updated.getBanDirectory()), updated.getBanCompactThreshold());
+        } catch (IOException e) {
+            ServerLog.error("重新加载封禁列表失败，继续使用原来的封禁列表: " + e.getMessage(), e);
+        }
+        
+        if (!updated.sameIoModel(config)) {
+            ServerLog.warn("I/O模式、线程模式和广播分片数的修改需要使用 handoff 重启进程后才能生效");
+        }
+        config = updated;
+        for (ClientHandler client : clients.values()) {
+            client.reconfigure(updated);
+        }
+        ServerLog.info("已重新加载配置，封禁用户 " + bans.size() + " 个");
+    }
+
+    /**
+     * 移交给新进程：为每个新协议的客户端生成恢复令牌，连同随机分散的重连延迟发给客户端，
+     * 把会话保存到移交文件后关闭并退出。新进程启动时读取该文件，客户端凭令牌恢复会话，
+     * 不会在同一时刻一起重连，也不会产生大量的加入和离开通知
+     */
+    public void handoff() {
+        ServerLog.info("正在移交连接，保存会话后退出...");
+        if (federation != null) {
+            // 先断开与其他节点的连接，这些用户稍后会在新进程上恢复，不应通知其他节点离开
+            federation.close();
+        }
+        ServerConfig current = config;
+        int spread = current.getResumeSpreadMillis();
+        int issued = 0;
+        for (ClientHandler client : clients.values()) {
+            String username = client.getUsername();
+            // 旧协议的客户端不支持恢复，按原来的方式在重启后重连
+            if (username == null || !client.isFramed()) {
+                continue;
+            }
+            String token = handoff.issue(username, client.getChannels(), current.getResumeTtlMillis());
+            int delay = RESUME_MIN_DELAY_MILLIS + (spread > 0 ? ThreadLocalRandom.current().nextInt(spread) : 0);
+            client.send(OutboundMessage.resume(token, delay));
+            issued++;
+        }
+        
+        try {
+            handoff.save(Paths.get(current.getHandoffFile()));
+            ServerLog.info("已为 " + issued + " 个连接保存会话: " + current.getHandoffFile());
+            stop(OutboundMessage.disconnect(IRCProtocol.REASON_RESTART,
+                    "&c[OpticsValleyIRC] 服务器正在重启，稍后将自动恢复连接"));
+            ServerLog.shutdown();
+            System.exit(0);
+        } catch (Exception e) {
+            ServerLog.error("移交连接时出错: " + e.getMessage(), e);
+            ServerLog.shutdown();
+            System.exit(1);
         }
     }
     
@@ -365,50 +819,85 @@ public class IRCServer {
      */
     public void shutdown() {
         try {
-            isRunning = false;
-            System.out.println("正在关闭服务器...");
-            
-            // 通知所有客户端
-            broadcastSystemMessage("&c[OpticsValleyIRC] 服务器正在关闭，所有连接将被断开");
-            
-            // 关闭所有客户端连接
-            for (ClientHandler client : clients.values()) {
-                client.disconnect();
-            }
-            
-            // 关闭服务器套接字
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-            
-            // 关闭线程池
-            executorService.shutdownNow();
-            
-            // 关闭GUI
-            if (gui != null) {
-                gui.dispose();
-            }
-            
-            System.out.println("服务器已关闭");
+            stop();
+            // 把还在队列中的日志写完再退出
+            ServerLog.shutdown();
             
             // 完全退出程序，确保所有线程都被终止
             System.exit(0);
             
         } catch (Exception e) {
-            System.out.println("关闭服务器时出错: " + e.getMessage());
-            e.printStackTrace();
+            ServerLog.error("关闭服务器时出错: " + e.getMessage(), e);
+            ServerLog.shutdown();
             // 即使出错也强制退出
             System.exit(1);
         }
     }
 
+    /**
+     * 断开所有连接并释放线程和端口，但不退出进程
+     */
+    void stop() throws IOException {
+        stop(OutboundMessage.disconnect(IRCProtocol.REASON_SHUTDOWN,
+                "&c[OpticsValleyIRC] 服务器正在关闭，所有连接将被断开"));
+    }
+
+    private void stop(OutboundMessage notice) throws IOException {
+        isRunning = false;
+        ServerLog.info("正在关闭服务器...");
+        
+        // 通知所有客户端，等通知放入各自的发送队列后再断开
+        broadcastSystemMessage(notice);
+        awaitFanout();
+        
+        // 关闭所有客户端连接
+        for (ClientHandler client : clients.values()) {
+            client.disconnect();
+        }
+        
+        // 关闭服务器套接字
+        if (serverSocket != null && !serverSocket.isClosed()) {
+            serverSocket.close();
+        }
+        
+        // 关闭线程池
+        executorService.shutdownNow();
+        presence.shutdown();
+        fanout.shutdown();
+        timers.stop();
+        metrics.shutdown();
+        bans.close();
+        if (archive != null) {
+            archive.close();
+        }
+        if (federation != null) {
+            federation.close();
+        }
+        if (eventLoops != null) {
+            for (NioEventLoop loop : eventLoops) {
+                loop.shutdown();
+            }
+        }
+        
+        // 关闭GUI
+        if (gui != null) {
+            gui.dispose();
+        }
+        
+        ServerLog.info("服务器已关闭");
+        shutdownLatch.countDown();
+    }
+
     public static void main(String[] args) {
         try {
-            IRCServer server = new IRCServer();
+            ServerConfig config = ServerConfig.load();
+            // 日志队列只在启动时按配置创建，重新加载配置不会改变
+            ServerLog.setCapacity(config.getLogCapacity());
+            IRCServer server = new IRCServer(config);
             server.start();
         } catch (IOException e) {
-            System.err.println("启动服务器时出错: " + e.getMessage());
-            e.printStackTrace();
+            ServerLog.error("启动服务器时出错: " + e.getMessage(), e);
+            ServerLog.shutdown();
         }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,122 @@
+package com.opticsvalley.irc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 最近聊天消息的环形缓冲区，用于新用户登录后回放
+ * 消息以编码好的字节连续保存在一个固定大小的数组中，同时受条数和总字节数限制，
+ * 占用的内存在创建时就已确定，与在线人数和登录次数无关。
+ * 回放内容在两次新消息之间只生成一次，大量用户同时登录时共用同一份字节。
+ * 每条记录的消息有一个递增的序号，登录时据此去掉回放中已有的广播，见 {@link ClientHandler#finishReplay}
+ */
+public class MessageHistory {
+    private final int maxMessages;
+    private final byte[] data;
+    // 每条消息的字节数，按写入顺序环形存放
+    private final int[] lengths;
+    private final OutboundMessage header;
+    private int head;
+    private int count;
+    private int dataStart;
+    private int dataUsed;
+    // 缓存的回放消息，写入新消息时失效
+    private OutboundMessage replay;
+    // 最近记录的一条消息的序号，从 1 开始
+    private long sequence;
+
+    /**
+     * 同一时刻的回放内容和其中最后一条消息的序号，序号不大于它的消息都在回放中或已被淘汰
+     */
+    static final class Snapshot {
+        // 没有历史消息时为 null
+        final OutboundMessage replay;
+        final long sequence;
+
+        Snapshot(OutboundMessage replay, long sequence) {
+            this.replay = replay;
+            this.sequence = sequence;
+        }
+    }
+
+    public MessageHistory(int maxMessages, int maxBytes) {
+        this.maxMessages = Math.max(0, maxMessages);
+        this.data = new byte[this.maxMessages > 0 ? Math.max(0, maxBytes) : 0];
+        this.lengths = new int[this.maxMessages];
+        this.header = OutboundMessage.of("&7[OpticsValleyIRC] ---- 最近的聊天记录 ----");
+    }
+
+    public boolean isEnabled() {
+        return maxMessages > 0 && data.length > 0;
+    }
+
+    /**
+     * 记录一条已编码的消息，空间不足时淘汰最旧的消息
+     * @return 这条消息的序号，没有记录时返回 0
+     */
+    public synchronized long add(OutboundMessage message) {
+        int length = message.length();
+        if (!isEnabled() || length > data.length) {
+            return 0;
+        }
+        while (count == maxMessages || dataUsed + length > data.length) {
+            evictOldest();
+        }
+
+        int position = (dataStart + dataUsed) % data.length;
+        ByteBuffer source = message.view();
+        int firstPart = Math.min(length, data.length - position);
+        source.get(data, position, firstPart);
+        if (firstPart < length) {
+            // 写到数组末尾后从头继续
+            source.get(data, 0, length - firstPart);
+        }
+        lengths[(head + count) % maxMessages] = length;
+        count++;
+        dataUsed += length;
+        replay = null;
+        return ++sequence;
+    }
+
+    /**
+     * 返回包含全部历史消息的一条多行消息，可以一次写出
+     * @return 没有历史消息时返回 null
+     */
+    public synchronized OutboundMessage replay() {
+        if (count == 0) {
+            return null;
+        }
+        if (replay == null) {
+            byte[] bytes = new byte[header.length() + dataUsed];
+            header.view().get(bytes, 0, header.length());
+            int firstPart = Math.min(dataUsed, data.length - dataStart);
+            System.arraycopy(data, dataStart, bytes, header.length(), firstPart);
+            System.arraycopy(data, 0, bytes, header.length() + firstPart, dataUsed - firstPart);
+            replay = OutboundMessage.ofEncoded(bytes);
+        }
+        return replay;
+    }
+
+    synchronized Snapshot snapshot() {
+        return new Snapshot(replay(), sequence);
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+        dataStart = 0;
+        dataUsed = 0;
+        replay = null;
+    }
+
+    private void evictOldest() {
+        int length = lengths[head];
+        dataStart = (dataStart + length) % data.length;
+        dataUsed -= length;
+        head = (head + 1) % maxMessages;
+        count--;
+    }
+}
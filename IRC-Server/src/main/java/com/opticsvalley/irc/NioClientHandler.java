@@ -0,0 +1,306 @@
+package com.opticsvalley.irc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 非阻塞I/O的客户端连接，读写都在所属的 {@link NioEventLoop} 线程中完成
+ * 其他线程调用 {@link #sendMessage(String)} 只会把消息放入发送队列，由事件循环负责写出
+ */
+public class NioClientHandler extends ClientHandler {
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private SelectionKey key;
+    // 已从发送队列取出但还没写完的消息，只在事件循环线程中访问
+    private final ArrayDeque<ByteBuffer> unwritten = new ArrayDeque<>(2);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // 尚未读到换行符的半行数据；握手后为尚未收完的一帧，也用来存放正在处理的帧内容
+    private byte[] lineBuffer = new byte[128];
+    private int lineLength;
+
+    public NioClientHandler(SocketChannel channel, NioEventLoop loop, IRCServer server) {
+        super(server);
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    void onReadable() {
+        ByteBuffer buffer = loop.readBuffer();
+        buffer.clear();
+        int read;
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            ServerLog.info("客户端连接异常: " + (username != null ? username : "未知用户") + " - " + e.getMessage());
+            disconnect();
+            return;
+        }
+        if (read < 0) {
+            ServerLog.info("客户端连接断开: " + (username != null ? username : "未知用户"));
+            disconnect();
+            return;
+        }
+        touch();
+
+        buffer.flip();
+        // 握手之前（以及旧协议的客户端）按行解析，握手之后剩下的数据按帧解析
+        while (buffer.hasRemaining() && isRunning() && !framed) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                int length = lineLength;
+                if (length > 0 && lineBuffer[length - 1] == '\r') {
+                    length--;
+                }
+                lineLength = 0;
+                handleLine(new String(lineBuffer, 0, length, StandardCharsets.UTF_8));
+            } else {
+                if (lineLength == lineBuffer.length && !growLineBuffer(lineLength + 1)) {
+                    return;
+                }
+                lineBuffer[lineLength++] = b;
+            }
+        }
+        if (framed && buffer.hasRemaining() && isRunning()) {
+            readFrames(buffer);
+        }
+    }
+
+    /**
+     * 直接从读缓冲区解析完整的帧，只把末尾没收完的一帧复制到 {@link #lineBuffer}，留到下次
+     * 一次读到的数据可以包含任意多个帧，长度上限只针对单个帧
+     */
+    private void readFrames(ByteBuffer buffer) {
+        try {
+            if (lineLength > 0 && !completePartialFrame(buffer)) {
+                return;
+            }
+            while (isRunning() && buffer.hasRemaining()) {
+                int frameStart = buffer.position();
+                int length = IRCProtocol.readVarint(buffer);
+                checkFrameLength(length);
+                if (length < 0 || buffer.remaining() < length) {
+                    // 帧还没收完
+                    buffer.position(frameStart);
+                    int tail = buffer.remaining();
+                    if (tail > lineBuffer.length && !growLineBuffer(tail)) {
+                        return;
+                    }
+                    buffer.get(lineBuffer, 0, tail);
+                    lineLength = tail;
+                    return;
+                }
+                // 读缓冲区是直接内存，帧内容复制到堆上再交给 handleFrame
+                if (length > lineBuffer.length && !growLineBuffer(length)) {
+                    return;
+                }
+                buffer.get(lineBuffer, 0, length);
+                handleFrame(lineBuffer[0], lineBuffer, 1, length - 1);
+            }
+        } catch (IOException e) {
+            ServerLog.info("客户端发送的数据格式不正确，断开连接: " + (username != null ? username : "未知用户") + " - " + e.getMessage());
+            disconnect();
+        }
+    }
+
+    /**
+     * 用本次读到的数据补全上次没收完的帧，只取这一帧需要的字节
+     * @return false 表示这一帧仍未收完或连接已断开
+     */
+    private boolean completePartialFrame(ByteBuffer buffer) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(lineBuffer, 0, lineLength);
+        int length = IRCProtocol.readVarint(header);
+        // 长度字段也可能没收完，逐字节补上
+        while (length < 0 && buffer.hasRemaining()) {
+            if (lineLength == lineBuffer.length && !growLineBuffer(lineLength + 1)) {
+                return false;
+            }
+            lineBuffer[lineLength++] = buffer.get();
+            header = ByteBuffer.wrap(lineBuffer, 0, lineLength);
+            length = IRCProtocol.readVarint(header);
+        }
+        checkFrameLength(length);
+        if (length < 0) {
+            return false;
+        }
+        int bodyStart = header.position();
+        int frameEnd = bodyStart + length;
+        if (frameEnd > lineBuffer.length && !growLineBuffer(frameEnd)) {
+            return false;
+        }
+        int needed = Math.min(frameEnd - lineLength, buffer.remaining());
+        buffer.get(lineBuffer, lineLength, needed);
+        lineLength += needed;
+        if (lineLength < frameEnd) {
+            return false;
+        }
+        lineLength = 0;
+        handleFrame(lineBuffer[bodyStart], lineBuffer, bodyStart + 1, length - 1);
+        return isRunning();
+    }
+
+    private static void checkFrameLength(int length) throws IOException {
+        if (length == 0 || length > IRCProtocol.MAX_FRAME_BYTES) {
+            throw new IOException("帧长度无效: " + length);
+        }
+    }
+
+    /**
+     * @return false 表示超过了长度上限，连接已断开
+     */
+    private boolean growLineBuffer(int required) {
+        // 最多容纳一个最大的帧加上它的长度字段
+        int limit = IRCProtocol.MAX_FRAME_BYTES + 8;
+        if (required > limit) {
+            ServerLog.info("客户端发送的单行消息过长，断开连接: " + (username != null ? username : "未知用户"));
+            disconnect();
+            return false;
+        }
+        byte[] grown = new byte[Math.min(Math.max(required, lineBuffer.length * 2), limit)];
+        System.arraycopy(lineBuffer, 0, grown, 0, lineLength);
+        lineBuffer = grown;
+        return true;
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    @Override
+    protected void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (server.getConfig().isBatchEnabled()) {
+                // 排到本轮读事件之后，期间入队的消息会合并成一次写出
+                loop.submit(this::flush);
+            } else {
+                loop.execute(this::flush);
+            }
+        }
+    }
+
+    /**
+     * 把待发送消息用一次聚集写（gathering write）写出
+     * 每批最多 irc.batch.maxBytes 字节；未开启批量发送时每次只写一条
+     */
+    private void flush() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        ServerConfig config = server.getConfig();
+        int maxBytes = config.isBatchEnabled() ? config.getBatchMaxBytes() : 1;
+        ByteBuffer[] batch = loop.writeBatch();
+        FrameCompressor compressor = this.compressor;
+        // 开启压缩时消息先交给压缩器，最后占用一个位置；上次没写完的数据也不能占用这个位置
+        int limit = compressor != null ? batch.length - 1 : batch.length;
+        try {
+            while (true) {
+                int count = 0;
+                int messages = 0;
+                int bytes = 0;
+                while (count < limit && bytes < maxBytes && !unwritten.isEmpty()) {
+                    ByteBuffer buffer = unwritten.poll();
+                    batch[count++] = buffer;
+                    bytes += buffer.remaining();
+                }
+                while (count < limit && bytes < maxBytes) {
+                    OutboundMessage message = outbound.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    if (compressor != null) {
+                        compressor.add(message);
+                    } else {
+                        batch[count++] = message.view(framed);
+                    }
+                    messages++;
+                    bytes += message.length(framed);
+                }
+                if (compressor != null) {
+                    ByteBuffer compressed = compressor.drain();
+                    if (compressed != null) {
+                        batch[count++] = compressed;
+                    }
+                }
+
+                if (count == 0) {
+                    if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    }
+                    flushScheduled.set(false);
+                    // 清除标记后可能又有新消息入队
+                    if (outbound.isEmpty() || !flushScheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+
+                metrics.messagesWritten(messages, channel.write(batch, 0, count));
+                for (int i = 0; i < count; i++) {
+                    if (batch[i].hasRemaining()) {
+                        unwritten.add(batch[i]);
+                    }
+                    batch[i] = null;
+                }
+                if (!unwritten.isEmpty()) {
+                    // 套接字发送缓冲区已满，等待可写事件后继续
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            Arrays.fill(batch, null);
+            // 发送消息失败，可能是连接已关闭
+            ServerLog.warn("发送消息给 " + username + " 失败: " + e.getMessage());
+            recordSendFailure();
+            disconnect();
+        }
+    }
+
+    private ByteBuffer nextWrite() {
+        OutboundMessage message = outbound.poll();
+        return message != null ? message.view(framed) : null;
+    }
+
+    @Override
+    protected void closeConnection() {
+        loop.execute(() -> {
+            // 关闭前尽量把剩余消息和断开通知写出去，不等待
+            outbound.force(DISCONNECT_MESSAGE);
+            try {
+                ByteBuffer buffer = unwritten.isEmpty() ? nextWrite() : unwritten.poll();
+                while (buffer != null && channel.isOpen()) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    buffer = unwritten.isEmpty() ? nextWrite() : unwritten.poll();
+                }
+            } catch (IOException ignored) {
+                // 忽略发送断开通知时的异常
+            }
+            unwritten.clear();
+            outbound.clear();
+            if (compressor != null) {
+                compressor.close();
+            }
+
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 忽略关闭通道时的异常
+            }
+        });
+    }
+}
@@ -0,0 +1,173 @@
+package com.opticsvalley.irc;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NIO事件循环，一个线程通过一个Selector负责多个客户端连接的读写
+ * 其他线程只能通过 {@link #execute(Runnable)} 把任务交给循环线程执行
+ */
+public class NioEventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_GATHER = 64;
+
+    private final IRCServer server;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    // 同一循环中的所有连接共用一个读缓冲区，连接本身只保存未读完的半行
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    // 合并写出时复用的数组，同样由所有连接共用
+    private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_GATHER];
+    private volatile boolean isRunning = true;
+
+    public NioEventLoop(IRCServer server, int index) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "IRC-IO-" + index);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 在循环线程中执行任务，当前已在循环线程时直接执行
+     */
+    public void execute(Runnable task) {
+        if (inEventLoop()) {
+            task.run();
+            return;
+        }
+        submit(task);
+    }
+
+    /**
+     * 总是排队执行：在循环线程中提交的任务会在本轮所有读事件处理完之后才执行，
+     * 用于把同一轮产生的多条消息合并成一次写出
+     */
+    public void submit(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 把新接受的连接注册到该循环
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                if (server.getConfig().isBatchEnabled()) {
+                    // 由事件循环自己合并小包，不再需要Nagle算法
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                NioClientHandler handler = new NioClientHandler(channel, this, server);
+                handler.setKey(channel.register(selector, SelectionKey.OP_READ, handler));
+                handler.startHeartbeat(server.getTimers());
+            } catch (IOException e) {
+                ServerLog.warn("注册客户端连接失败: " + e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 忽略关闭通道时的异常
+                }
+            }
+        });
+    }
+
+    ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    ByteBuffer[] writeBatch() {
+        return writeBatch;
+    }
+
+    @Override
+    public void run() {
+        while (isRunning) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(false);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioClientHandler handler = (NioClientHandler) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            handler.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handler.onWritable();
+                        }
+                    } catch (CancelledKeyException e) {
+                        handler.disconnect();
+                    }
+                }
+
+                // 读事件处理完后再执行任务，本轮产生的待发送消息会在这里一起写出
+                runTasks();
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (isRunning) {
+                    ServerLog.error("事件循环出错", e);
+                }
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                ServerLog.warn("事件循环任务执行出错: " + e.getMessage());
+            }
+        }
+    }
+
+    public void shutdown() {
+        // 先执行完已提交的任务（例如发送断开通知），再关闭Selector
+        execute(() -> isRunning = false);
+        if (!inEventLoop()) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // 忽略关闭Selector时的异常
+        }
+    }
+}
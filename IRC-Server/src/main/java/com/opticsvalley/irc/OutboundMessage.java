@@ -0,0 +1,178 @@
+package com.opticsvalley.irc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 已编码好的一行消息（UTF-8，带换行符），创建后不可修改
+ * 广播时只编码一次，所有接收者共享同一份字节，各自通过只读视图写出
+ * 使用二进制帧协议的接收者共享另一份帧编码，在第一次需要时生成
+ */
+public final class OutboundMessage {
+    // 帧编码与文本编码相同，用于握手应答
+    private static final byte RAW = -1;
+    private static final byte[] NO_PREFIX = new byte[0];
+
+    private final String text;
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private final byte opcode;
+    private final byte[] framePrefix;
+    private volatile byte[] frame;
+
+    private OutboundMessage(String text, byte[] bytes, byte opcode, byte[] framePrefix) {
+        this.text = text;
+        this.bytes = bytes;
+        this.buffer = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        this.opcode = opcode;
+        this.framePrefix = framePrefix;
+    }
+
+    public static OutboundMessage of(String text) {
+        return new OutboundMessage(text, encodeLine(text), IRCProtocol.OP_MESSAGE, NO_PREFIX);
+    }
+
+    /**
+     * 包装已经编码好的一行或多行（每行以换行符结尾），用于一次写出多条消息
+     * 调用方之后不能再修改该数组
+     */
+    static OutboundMessage ofEncoded(byte[] encoded) {
+        return new OutboundMessage(null, encoded, IRCProtocol.OP_MESSAGE, NO_PREFIX);
+    }
+
+    /**
+     * 断开通知：旧协议的客户端收到文本，新协议的客户端收到带原因的断开帧
+     */
+    static OutboundMessage disconnect(byte reason, String text) {
+        return new OutboundMessage(text, encodeLine(text), IRCProtocol.OP_DISCONNECT, new byte[]{reason});
+    }
+
+    /**
+     * 崩溃指令：旧协议的客户端靠文本中的标记识别，新协议的客户端收到崩溃帧
+     */
+    static OutboundMessage crash(String text) {
+        return new OutboundMessage(text, encodeLine(text), IRCProtocol.OP_CRASH, NO_PREFIX);
+    }
+
+    /**
+     * 进程移交前发给客户端的恢复令牌和重连延迟，只发给使用新协议的客户端
+     */
+    static OutboundMessage resume(String token, int delayMillis) {
+        byte[] prefix = new byte[IRCProtocol.varintSize(delayMillis)];
+        IRCProtocol.writeVarint(prefix, 0, delayMillis);
+        return new OutboundMessage(token, encodeLine(token), IRCProtocol.OP_RESUME, prefix);
+    }
+
+    /**
+     * 心跳，只发给在握手时声明支持的客户端
+     */
+    static OutboundMessage ping() {
+        return new OutboundMessage("", encodeLine(""), IRCProtocol.OP_PING, NO_PREFIX);
+    }
+
+    /**
+     * 两种协议下都原样发送的一行，只用于握手应答
+     */
+    static OutboundMessage raw(String line) {
+        return new OutboundMessage(line, encodeLine(line), RAW, NO_PREFIX);
+    }
+
+    private static byte[] encodeLine(String text) {
+        return (text + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String getText() {
+        if (text == null) {
+            // 多行消息只在需要时解码
+            return new String(bytes, 0, Math.max(0, bytes.length - 1), StandardCharsets.UTF_8);
+        }
+        return text;
+    }
+
+    /**
+     * 编码后的字节数
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * @param framed 接收者是否使用二进制帧协议
+     */
+    public int length(boolean framed) {
+        return framed ? frame().length : bytes.length;
+    }
+
+    /**
+     * 返回一个独立读写位置的只读视图，可以在非阻塞写出时记录进度
+     */
+    public ByteBuffer view() {
+        return buffer.duplicate();
+    }
+
+    public ByteBuffer view(boolean framed) {
+        return framed ? ByteBuffer.wrap(frame()).asReadOnlyBuffer() : buffer.duplicate();
+    }
+
+    /**
+     * 直接写出底层字节，不会把数组暴露给调用方
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes);
+    }
+
+    public void writeTo(OutputStream out, boolean framed) throws IOException {
+        if (!framed) {
+            out.write(bytes);
+            return;
+        }
+        out.write(frame());
+    }
+
+    /**
+     * 握手应答等原样发送的消息，不能放进压缩帧
+     */
+    boolean isRaw() {
+        return opcode == RAW;
+    }
+
+    /**
+     * 把帧编码复制到 target 的 offset 处，调用方需保证空间足够（见 {@link #length(boolean)}）
+     */
+    void copyFrameTo(byte[] target, int offset) {
+        byte[] encoded = frame();
+        System.arraycopy(encoded, 0, target, offset, encoded.length);
+    }
+
+    // 多个线程同时生成时结果相同，只是多编码一次
+    private byte[] frame() {
+        byte[] encoded = frame;
+        if (encoded == null) {
+            encoded = encodeFrame();
+            frame = encoded;
+        }
+        return encoded;
+    }
+
+    private byte[] encodeFrame() {
+        if (opcode == RAW) {
+            return bytes;
+        }
+        if (text != null) {
+            return IRCProtocol.frame(opcode, framePrefix, bytes, 0, bytes.length - 1);
+        }
+        // 多行消息：每行一帧
+        ByteArrayOutputStream frames = new ByteArrayOutputStream(bytes.length + 16);
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                frames.writeBytes(IRCProtocol.frame(opcode, framePrefix, bytes, start, i - start));
+                start = i + 1;
+            }
+        }
+        return frames.toByteArray();
+    }
+}
@@ -0,0 +1,111 @@
+package com.opticsvalley.irc;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个客户端的有界发送队列
+ * 广播线程只负责入队，由该连接自己的写线程（或事件循环）取出发送，
+ * 这样一个读得慢的客户端不会拖慢对其他人的广播
+ */
+public class OutboundQueue<E> {
+
+    public enum OverflowPolicy {
+        // 丢弃队列中最旧的消息
+        DROP_OLDEST,
+        // 丢弃新到的消息
+        DROP_NEWEST,
+        // 断开这个跟不上的客户端
+        DISCONNECT
+    }
+
+    private final BlockingQueue<E> queue;
+    private final OverflowPolicy policy;
+    private final AtomicLong droppedCount = new AtomicLong();
+    // 所有连接共用的丢弃总数，可以为 null
+    private final LongAdder droppedTotal;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, null);
+    }
+
+    public OutboundQueue(int capacity, OverflowPolicy policy, LongAdder droppedTotal) {
+        // 按需分配节点，避免每个连接预先占用整块数组
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.droppedTotal = droppedTotal;
+    }
+
+    /**
+     * 消息入队，队列已满时按溢出策略处理
+     * @return false 表示应断开该客户端
+     */
+    public boolean offer(E message) {
+        if (queue.offer(message)) {
+            return true;
+        }
+        switch (policy) {
+            case DROP_NEWEST:
+                dropped();
+                return true;
+            case DROP_OLDEST:
+                while (!queue.offer(message)) {
+                    if (queue.poll() != null) {
+                        dropped();
+                    }
+                }
+                return true;
+            case DISCONNECT:
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 无视溢出策略入队，队列已满时挤掉最旧的一条，只用于断开通知这类控制消息
+     */
+    public void force(E message) {
+        while (!queue.offer(message)) {
+            if (queue.poll() != null) {
+                dropped();
+            }
+        }
+    }
+
+    private void dropped() {
+        droppedCount.incrementAndGet();
+        if (droppedTotal != null) {
+            droppedTotal.increment();
+        }
+    }
+
+    public E poll() {
+        return queue.poll();
+    }
+
+    /**
+     * 最多等待指定时间取出一条消息
+     */
+    public E poll(long timeoutNanos) throws InterruptedException {
+        return queue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public void clear() {
+        queue.clear();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
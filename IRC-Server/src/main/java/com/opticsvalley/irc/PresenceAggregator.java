@@ -0,0 +1,133 @@
+package com.opticsvalley.irc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 合并短时间内的加入/离开通知
+ * 重启后大量客户端同时重连时，不再为每个人单独广播一条加入消息，
+ * 而是在一个时间窗口内汇总，超过阈值时只广播一条汇总通知
+ */
+public class PresenceAggregator {
+    // 汇总通知中最多列出的用户名数量
+    private static final int MAX_LISTED_NAMES = 3;
+
+    private final IRCServer server;
+    private final long windowMillis;
+    private final int threshold;
+    private final Queue<PresenceEvent> events = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService scheduler;
+
+    private static final class PresenceEvent {
+        final String username;
+        final boolean joined;
+
+        PresenceEvent(String username, boolean joined) {
+            this.username = username;
+            this.joined = joined;
+        }
+    }
+
+    public PresenceAggregator(IRCServer server, long windowMillis, int threshold) {
+        this.server = server;
+        this.windowMillis = windowMillis;
+        this.threshold = threshold;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "IRC-Presence");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void joined(String username) {
+        record(new PresenceEvent(username, true));
+    }
+
+    public void left(String username) {
+        record(new PresenceEvent(username, false));
+    }
+
+    private void record(PresenceEvent event) {
+        if (windowMillis <= 0) {
+            // 未开启合并，立即广播
+            server.broadcastSystemMessage(event.joined ? joinNotice(event.username) : leaveNotice(event.username));
+            return;
+        }
+        events.add(event);
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+
+        // 计算窗口内每个用户的净变化，先离开再重连（或加入后立即离开）的用户互相抵消
+        Map<String, Integer> changes = new LinkedHashMap<>();
+        PresenceEvent event;
+        while ((event = events.poll()) != null) {
+            changes.merge(event.username, event.joined ? 1 : -1, Integer::sum);
+        }
+
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (Map.Entry<String, Integer> change : changes.entrySet()) {
+            if (change.getValue() > 0) {
+                joined.add(change.getKey());
+            } else if (change.getValue() < 0) {
+                left.add(change.getKey());
+            }
+        }
+
+        try {
+            if (joined.size() > threshold) {
+                server.broadcastSystemMessage("&a[OpticsValleyIRC] " + summarize(joined) + "已加入IRC");
+            } else {
+                for (String username : joined) {
+                    server.broadcastSystemMessage(joinNotice(username));
+                }
+            }
+            if (left.size() > threshold) {
+                server.broadcastSystemMessage("&7[OpticsValleyIRC] " + summarize(left) + "已离开IRC");
+            } else {
+                for (String username : left) {
+                    server.broadcastSystemMessage(leaveNotice(username));
+                }
+            }
+        } catch (Exception e) {
+            ServerLog.warn("广播上下线通知时出错: " + e.getMessage());
+        }
+    }
+
+    private static String summarize(List<String> users) {
+        StringBuilder sb = new StringBuilder("用户 ");
+        for (int i = 0; i < Math.min(MAX_LISTED_NAMES, users.size()); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(users.get(i));
+        }
+        return sb.append(" 等 ").append(users.size()).append(" 人").toString();
+    }
+
+    static String joinNotice(String username) {
+        return "&a[OpticsValleyIRC] 用户 " + username + " 已加入IRC";
+    }
+
+    static String leaveNotice(String username) {
+        return "&7[OpticsValleyIRC] 用户 " + username + " 已离开IRC";
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
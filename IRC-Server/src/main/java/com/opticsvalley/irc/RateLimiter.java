@@ -0,0 +1,54 @@
+package com.opticsvalley.irc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁的令牌桶限流
+ * 用 GCRA 算法实现，与令牌桶等价：只保存“理论到达时间”一个值，每次检查是一次比较和一次CAS，
+ * 不需要定时补充令牌。桶满时可以连续通过 burst 条，之后按每秒 perSecond 条的速率恢复
+ */
+final class RateLimiter {
+    // 每条消息消耗的时间（纳秒），即 1 / 速率
+    private final long intervalNanos;
+    // 允许超前的时间，对应桶的容量
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrival;
+
+    RateLimiter(double perSecond, int burst) {
+        this(perSecond, burst, System.nanoTime());
+    }
+
+    /**
+     * @param startNanos 与 {@link #tryAcquire(long)} 使用同一时钟的起始时间，此时桶是满的
+     */
+    RateLimiter(double perSecond, int burst, long startNanos) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.theoreticalArrival = new AtomicLong(startNanos);
+    }
+
+    /**
+     * 尝试消耗一个令牌
+     * @return false 表示超过了速率限制
+     */
+    boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * @param now 当前时间（纳秒），由调用方提供，便于测试
+     */
+    boolean tryAcquire(long now) {
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long start = Math.max(arrival, now);
+            if (start - now > toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.opticsvalley.irc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * 服务端配置
+ * 先读取工作目录下的 irc-server.properties，再由同名的 -D 系统属性覆盖
+ */
+public final class ServerConfig {
+    public static final String CONFIG_FILE = "irc-server.properties";
+    public static final int DEFAULT_PORT = 16688;
+
+    public enum IoMode {
+        // 每个连接一个线程的阻塞式I/O
+        BLOCKING,
+        // 基于Selector的少量事件循环线程
+        NIO
+    }
+
+    public enum ThreadMode {
+        // 普通的平台线程
+        PLATFORM,
+        // Java 21+ 的虚拟线程，低版本自动回退为平台线程
+        VIRTUAL
+    }
+
+    private final int port;
+    private final IoMode ioMode;
+    private final int ioThreads;
+    private final ThreadMode threadMode;
+    private final int fanoutShards;
+    private final int outboundCapacity;
+    private final OutboundQueue.OverflowPolicy overflowPolicy;
+    private final boolean batchEnabled;
+    private final int batchMaxBytes;
+    private final long batchLingerNanos;
+    private final int presenceWindowMillis;
+    private final int presenceThreshold;
+    private final String banDirectory;
+    private final int banCompactThreshold;
+    private final int historyMessages;
+    private final int historyMaxBytes;
+    private final int rateLimitPerSecond;
+    private final int rateLimitBurst;
+    private final int heartbeatIntervalSeconds;
+    private final int heartbeatTimeoutSeconds;
+    private final boolean compressionEnabled;
+    private final int compressionThreshold;
+    private final boolean archiveEnabled;
+    private final String archiveDirectory;
+    private final int archiveSegmentMegabytes;
+    private final int archiveRetentionMegabytes;
+    private final int archiveRetentionDays;
+    private final int archiveCommitMillis;
+    private final int archiveCapacity;
+    private final String handoffFile;
+    private final int resumeTtlSeconds;
+    private final int resumeSpreadMillis;
+    private final int federationPort;
+    private final String federationBind;
+    private final String federationPeers;
+    private final String federationSecret;
+    private final int logCapacity;
+
+    private ServerConfig(Properties props) {
+        this.port = getInt(props, "irc.port", DEFAULT_PORT);
+        this.ioMode = getEnum(props, "irc.io.mode", IoMode.class, IoMode.BLOCKING);
+        this.ioThreads = Math.max(1, getInt(props, "irc.io.threads", Runtime.getRuntime().availableProcessors()));
+        this.threadMode = getEnum(props, "irc.threads", ThreadMode.class, ThreadMode.PLATFORM);
+        this.fanoutShards = Math.max(1, getInt(props, "irc.fanout.shards", Runtime.getRuntime().availableProcessors()));
+        this.outboundCapacity = Math.max(1, getInt(props, "irc.outbound.capacity", 1024));
+        this.overflowPolicy = getEnum(props, "irc.outbound.overflow", OutboundQueue.OverflowPolicy.class,
+                OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        this.batchEnabled = getBoolean(props, "irc.batch.enabled", true);
+        this.batchMaxBytes = Math.max(512, getInt(props, "irc.batch.maxBytes", 8192));
+        this.batchLingerNanos = Math.max(0, getInt(props, "irc.batch.lingerMicros", 200)) * 1000L;
+        this.presenceWindowMillis = Math.max(0, getInt(props, "irc.presence.windowMillis", 500));
+        this.presenceThreshold = Math.max(0, getInt(props, "irc.presence.threshold", 5));
+        this.banDirectory = getString(props, "irc.bans.dir", ".");
+        this.banCompactThreshold = Math.max(1, getInt(props, "irc.bans.compactThreshold", 10000));
+        this.historyMessages = Math.max(0, getInt(props, "irc.history.messages", 50));
+        this.historyMaxBytes = Math.max(0, getInt(props, "irc.history.maxBytes", 16384));
+        this.rateLimitPerSecond = Math.max(0, getInt(props, "irc.ratelimit.perSecond", 5));
+        this.rateLimitBurst = Math.max(1, getInt(props, "irc.ratelimit.burst", 10));
+        this.heartbeatIntervalSeconds = Math.max(0, getInt(props, "irc.heartbeat.intervalSeconds", 30));
+        this.heartbeatTimeoutSeconds = Math.max(1, getInt(props, "irc.heartbeat.timeoutSeconds", 15));
+        this.compressionEnabled = getBoolean(props, "irc.compression.enabled", true);
+        this.compressionThreshold = Math.max(0, getInt(props, "irc.compression.threshold", 512));
+        this.archiveEnabled = getBoolean(props, "irc.archive.enabled", false);
+        this.archiveDirectory = getString(props, "irc.archive.dir", "chatlog");
+        this.archiveSegmentMegabytes = Math.max(1, getInt(props, "irc.archive.segmentMB", 64));
+        this.archiveRetentionMegabytes = Math.max(0, getInt(props, "irc.archive.retentionMB", 1024));
+        this.archiveRetentionDays = Math.max(0, getInt(props, "irc.archive.retentionDays", 30));
+        this.archiveCommitMillis = Math.max(0, getInt(props, "irc.archive.commitMillis", 50));
+        this.archiveCapacity = Math.max(1024, getInt(props, "irc.archive.capacity", 65536));
+        this.handoffFile = getString(props, "irc.handoff.file", "handoff.dat");
+        this.resumeTtlSeconds = Math.max(1, getInt(props, "irc.resume.ttlSeconds", 120));
+        this.resumeSpreadMillis = Math.max(0, getInt(props, "irc.resume.spreadMillis", 10000));
+        this.federationPort = Math.max(0, getInt(props, "irc.federation.port", 0));
+        this.federationBind = getString(props, "irc.federation.bind", "").trim();
+        this.federationPeers = getString(props, "irc.federation.peers", "");
+        this.federationSecret = getString(props, "irc.federation.secret", "");
+        this.logCapacity = Math.max(ServerLog.MIN_CAPACITY, getInt(props, "irc.log.capacity", ServerLog.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * 加载配置，配置文件不存在时只使用系统属性和默认值
+     */
+    public static ServerConfig load() {
+        Properties props = new Properties();
+        Path file = Paths.get(CONFIG_FILE);
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                props.load(in);
+            } catch (IOException e) {
+                ServerLog.warn("读取配置文件失败，使用默认配置: " + e.getMessage());
+            }
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("irc.")) {
+                props.setProperty(key, System.getProperty(key));
+            }
+        }
+        return new ServerConfig(props);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public IoMode getIoMode() {
+        return ioMode;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    /**
+     * 广播分片数，每个分片一个工作线程，1 表示在发送者的线程中直接广播
+     */
+    public int getFanoutShards() {
+        return fanoutShards;
+    }
+
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    public OutboundQueue.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public boolean isBatchEnabled() {
+        return batchEnabled;
+    }
+
+    public int getBatchMaxBytes() {
+        return batchMaxBytes;
+    }
+
+    public long getBatchLingerNanos() {
+        return batchLingerNanos;
+    }
+
+    public int getPresenceWindowMillis() {
+        return presenceWindowMillis;
+    }
+
+    public int getPresenceThreshold() {
+        return presenceThreshold;
+    }
+
+    /**
+     * 封禁快照和日志所在的目录
+     */
+    public String getBanDirectory() {
+        return banDirectory;
+    }
+
+    /**
+     * 封禁日志累积多少条后压缩成快照
+     */
+    public int getBanCompactThreshold() {
+        return banCompactThreshold;
+    }
+
+    /**
+     * 登录时回放的最近聊天消息条数，0 表示不回放
+     */
+    public int getHistoryMessages() {
+        return historyMessages;
+    }
+
+    public int getHistoryMaxBytes() {
+        return historyMaxBytes;
+    }
+
+    /**
+     * 每个连接每秒可以发送的消息数，0 表示不限制
+     */
+    public int getRateLimitPerSecond() {
+        return rateLimitPerSecond;
+    }
+
+    /**
+     * 每个连接可以连续发送的消息数，之后按 irc.ratelimit.perSecond 的速率恢复
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * 连接多久没有收到数据时发送心跳，0 表示不发送
+     */
+    public long getHeartbeatIntervalMillis() {
+        return heartbeatIntervalSeconds * 1000L;
+    }
+
+    /**
+     * 发送心跳后等待回应的时间，同时也是新连接完成登录的时限
+     */
+    public long getHeartbeatTimeoutMillis() {
+        return heartbeatTimeoutSeconds * 1000L;
+    }
+
+    /**
+     * 是否允许客户端在握手时开启压缩
+     */
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    /**
+     * 一次写出的数据达到该字节数时才压缩，更小的直接发送
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * 是否把聊天和系统消息写入聊天存档
+     */
+    public boolean isArchiveEnabled() {
+        return archiveEnabled;
+    }
+
+    public String getArchiveDirectory() {
+        return archiveDirectory;
+    }
+
+    public long getArchiveSegmentBytes() {
+        return archiveSegmentMegabytes * 1024L * 1024L;
+    }
+
+    /**
+     * 存档总大小上限，0 表示不限制
+     */
+    public long getArchiveRetentionBytes() {
+        return archiveRetentionMegabytes * 1024L * 1024L;
+    }
+
+    /**
+     * 存档保存时间，0 表示不限制
+     */
+    public long getArchiveRetentionMillis() {
+        return archiveRetentionDays * 24L * 60 * 60 * 1000;
+    }
+
+    /**
+     * 持续有消息写入时两次同步到磁盘之间的最长间隔
+     */
+    public int getArchiveCommitMillis() {
+        return archiveCommitMillis;
+    }
+
+    public int getArchiveCapacity() {
+        return archiveCapacity;
+    }
+
+    /**
+     * 移交进程时保存会话的文件
+     */
+    public String getHandoffFile() {
+        return handoffFile;
+    }
+
+    /**
+     * 移交后客户端凭令牌恢复会话的有效期
+     */
+    public long getResumeTtlMillis() {
+        return resumeTtlSeconds * 1000L;
+    }
+
+    /**
+     * 移交时客户端的重连时间随机分散在这段时间内，避免同时重连
+     */
+    public int getResumeSpreadMillis() {
+        return resumeSpreadMillis;
+    }
+
+    /**
+     * 接受其他节点连接的端口，0 表示不监听
+     */
+    public int getFederationPort() {
+        return federationPort;
+    }
+
+    /**
+     * 互联端口监听的本机地址，空表示所有网卡
+     */
+    public String getFederationBind() {
+        return federationBind;
+    }
+
+    /**
+     * 主动连接的其他节点，逗号分隔的 主机:端口
+     */
+    public String getFederationPeers() {
+        return federationPeers;
+    }
+
+    /**
+     * 节点之间握手时校验的密钥，所有节点必须相同；为空时不开启节点互联
+     */
+    public String getFederationSecret() {
+        return federationSecret;
+    }
+
+    public int getLogCapacity() {
+        return logCapacity;
+    }
+
+    /**
+     * 是否开启节点互联
+     */
+    public boolean isFederationEnabled() {
+        return federationPort > 0 || !federationPeers.isEmpty();
+    }
+
+    /**
+     * I/O模式、I/O线程数、线程模式和广播分片数是否相同，这些设置只能在进程启动时生效
+     */
+    boolean sameIoModel(ServerConfig other) {
+        return ioMode == other.ioMode && ioThreads == other.ioThreads && threadMode == other.threadMode
+                && fanoutShards == other.fanoutShards;
+    }
+
+    private static String getString(Properties props, String key, String defaultValue) {
+        String value = props.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private static boolean getBoolean(Properties props, String key, boolean defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            ServerLog.info("配置项 " + key + " 不是有效的整数: " + value + "，使用默认值 " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private static <E extends Enum<E>> E getEnum(Properties props, String key, Class<E> type, E defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            ServerLog.info("配置项 " + key + " 的值无效: " + value + "，使用默认值 " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -3,9 +3,20 @@ package com.opticsvalley.irc;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ServerGUI extends JFrame {
+    // 用户列表合并更新的间隔，每秒最多刷新4次
+    private static final int USER_LIST_REFRESH_MILLIS = 250;
+    // 一次下线人数超过该值时直接重建列表，比逐个查找删除更快
+    private static final int MAX_INCREMENTAL_REMOVALS = 16;
+    // 统计面板的刷新间隔
+    private static final int METRICS_REFRESH_MILLIS = 1000;
+
     private IRCServer server;
     private JList<String> userList;
     private DefaultListModel<String> userListModel;
@@ -16,7 +27,19 @@ public class ServerGUI extends JFrame {
     private JTextField commandField;
     private JButton executeButton;
     private JLabel onlineCountLabel;
+    private JLabel connectionsLabel;
+    private JLabel messageRateLabel;
+    private JLabel bytesRateLabel;
+    private JLabel fanoutLabel;
+    private JLabel loginLabel;
+    private JLabel failuresLabel;
     private final Font msYaHeiFont = new Font("微软雅黑", Font.PLAIN, 12);
+    // 等待合并进列表的用户变化，true 为上线，false 为下线，同一用户只保留最后一次变化
+    private final ConcurrentHashMap<String, Boolean> pendingUserChanges = new ConcurrentHashMap<>();
+    // 与列表模型内容保持一致，只在EDT中访问
+    private final Set<String> listedUsers = new LinkedHashSet<>();
+    private Timer userListTimer;
+    private Timer metricsTimer;
 
     public ServerGUI(IRCServer server) {
         this.server = server;
@@ -31,7 +54,7 @@ public class ServerGUI extends JFrame {
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                System.out.println("GUI窗口已关闭，使用/opengui指令可以重新打开GUI界面");
+                ServerLog.info("GUI窗口已关闭，使用/opengui指令可以重新打开GUI界面");
             }
         });
         
@@ -41,6 +64,15 @@ public class ServerGUI extends JFrame {
         // 布局组件
         layoutComponents();
         
+        // 定时把积累的用户变化合并到列表中
+        userListTimer = new Timer(USER_LIST_REFRESH_MILLIS, e -> applyPendingUserChanges());
+        userListTimer.start();
+        
+        // 定时刷新统计面板
+        metricsTimer = new Timer(METRICS_REFRESH_MILLIS, e -> updateMetrics());
+        metricsTimer.start();
+        updateMetrics();
+        
         // 设置可见
         setVisible(true);
     }
@@ -75,6 +107,14 @@ public class ServerGUI extends JFrame {
         onlineCountLabel = new JLabel("总在线人数: <人数>");
         onlineCountLabel.setFont(msYaHeiFont);
         
+        // 统计面板
+        connectionsLabel = createMetricLabel();
+        messageRateLabel = createMetricLabel();
+        bytesRateLabel = createMetricLabel();
+        fanoutLabel = createMetricLabel();
+        loginLabel = createMetricLabel();
+        failuresLabel = createMetricLabel();
+        
         // 添加事件监听器
         banUnbanButton.addActionListener(e -> handleBanUnban());
         crashButton.addActionListener(e -> handleCrash());
@@ -114,6 +154,22 @@ public class ServerGUI extends JFrame {
         rightPanel.add(restartButton, BorderLayout.NORTH);
         rightPanel.add(shutdownButton, BorderLayout.SOUTH);
         
+        // 统计面板放在两个按钮之间
+        JPanel metricsPanel = new JPanel(new GridLayout(0, 1, 0, 2));
+        metricsPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0));
+        JLabel metricsTitle = new JLabel("运行统计");
+        metricsTitle.setFont(msYaHeiFont.deriveFont(Font.BOLD));
+        metricsPanel.add(metricsTitle);
+        metricsPanel.add(connectionsLabel);
+        metricsPanel.add(messageRateLabel);
+        metricsPanel.add(bytesRateLabel);
+        metricsPanel.add(fanoutLabel);
+        metricsPanel.add(loginLabel);
+        metricsPanel.add(failuresLabel);
+        JPanel metricsWrapper = new JPanel(new BorderLayout());
+        metricsWrapper.add(metricsPanel, BorderLayout.NORTH);
+        rightPanel.add(metricsWrapper, BorderLayout.CENTER);
+        
         // 命令执行面板
         JPanel commandPanel = new JPanel(new BorderLayout());
         JLabel cmdLabel = new JLabel("指令执行");
@@ -172,7 +228,7 @@ public class ServerGUI extends JFrame {
     
     private void handleRestart() {
         int confirm = JOptionPane.showConfirmDialog(this, 
-                "确定要重启服务器吗？所有用户将断开连接。", 
+                "确定要重启服务器吗？将重新加载配置和封禁列表，已连接的用户不会断开。", 
                 "确认重启", 
                 JOptionPane.YES_NO_OPTION);
                 
@@ -200,17 +256,96 @@ public class ServerGUI extends JFrame {
         }
     }
     
-    // 更新用户列表
+    // 用完整的用户列表替换当前列表
     public void updateUserList(List<String> users) {
         SwingUtilities.invokeLater(() -> {
-            userListModel.clear();
-            for (String user : users) {
-                userListModel.addElement(user);
-            }
-            updateOnlineCount(users.size());
+            listedUsers.clear();
+            listedUsers.addAll(users);
+            rebuildUserList();
         });
     }
     
+    /**
+     * 记录一个用户上线或下线，可以在任意线程调用
+     * 变化会被合并，由定时器在EDT中批量应用，避免大量重连时反复重建列表
+     */
+    public void userChanged(String username, boolean online) {
+        pendingUserChanges.put(username, online);
+    }
+    
+    private void applyPendingUserChanges() {
+        if (pendingUserChanges.isEmpty()) {
+            return;
+        }
+        
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (String username : pendingUserChanges.keySet()) {
+            Boolean online = pendingUserChanges.remove(username);
+            if (online == null) {
+                continue;
+            }
+            if (online) {
+                if (listedUsers.add(username)) {
+                    added.add(username);
+                }
+            } else if (listedUsers.remove(username)) {
+                removed.add(username);
+            }
+        }
+        
+        if (removed.size() > MAX_INCREMENTAL_REMOVALS) {
+            rebuildUserList();
+            return;
+        }
+        for (String username : removed) {
+            userListModel.removeElement(username);
+        }
+        if (!added.isEmpty()) {
+            // 一次性追加，只触发一次列表事件
+            userListModel.addAll(added);
+        }
+        updateOnlineCount(listedUsers.size());
+    }
+    
+    private void rebuildUserList() {
+        String selected = userList.getSelectedValue();
+        userListModel.clear();
+        userListModel.addAll(listedUsers);
+        if (selected != null && listedUsers.contains(selected)) {
+            userList.setSelectedValue(selected, false);
+        }
+        updateOnlineCount(listedUsers.size());
+    }
+    
+    private JLabel createMetricLabel() {
+        JLabel label = new JLabel(" ");
+        label.setFont(msYaHeiFont);
+        return label;
+    }
+    
+    // 刷新统计面板，在EDT中由定时器调用
+    private void updateMetrics() {
+        ServerMetrics metrics = server.getMetrics();
+        connectionsLabel.setText("连接 " + metrics.getActiveConnections() + " / 在线 " + metrics.getOnlineUsers());
+        messageRateLabel.setText("收 " + metrics.getMessagesInPerSecond() + " 条/秒，发 " + metrics.getMessagesOutPerSecond() + " 条/秒");
+        bytesRateLabel.setText("写出 " + metrics.getBytesWrittenPerSecond() / 1024 + " KB/秒");
+        fanoutLabel.setText("广播 p99 " + metrics.getFanoutP99Micros() + " μs");
+        loginLabel.setText("登录 p99 " + metrics.getLoginP99Micros() / 1000 + " ms");
+        failuresLabel.setText("发送失败 " + metrics.getSendFailures());
+    }
+    
+    @Override
+    public void dispose() {
+        if (userListTimer != null) {
+            userListTimer.stop();
+        }
+        if (metricsTimer != null) {
+            metricsTimer.stop();
+        }
+        super.dispose();
+    }
+    
     // 更新在线人数
     private void updateOnlineCount(int count) {
         onlineCountLabel.setText("总在线人数: " + count);
@@ -0,0 +1,249 @@
+package com.opticsvalley.irc;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步服务端日志
+ * 业务线程只把结构化的日志事件放入无锁环形队列，格式化和输出都由后台线程完成，
+ * 这样聊天高峰时处理线程不会在 System.out 上互相竞争，终端或管道变慢也不会拖慢服务器
+ * 队列容量由配置项 irc.log.capacity 指定，启动时设置，队列满时丢弃新事件并计数
+ */
+public final class ServerLog {
+    static final int DEFAULT_CAPACITY = 16384;
+    static final int MIN_CAPACITY = 64;
+    // 每次最多合并输出的事件数
+    private static final int MAX_BATCH = 256;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private enum Kind {
+        INFO,
+        WARN,
+        ERROR,
+        MESSAGE
+    }
+
+    private static final class LogEvent {
+        final long time;
+        final Kind kind;
+        final String text;
+        final ChatMessage message;
+        final Throwable error;
+
+        LogEvent(Kind kind, String text, Throwable error) {
+            this.time = System.currentTimeMillis();
+            this.kind = kind;
+            this.text = text;
+            this.message = null;
+            this.error = error;
+        }
+
+        LogEvent(ChatMessage message) {
+            this.time = message.getTime();
+            this.kind = Kind.MESSAGE;
+            this.text = null;
+            this.message = message;
+            this.error = null;
+        }
+    }
+
+    // 读取配置之前使用默认容量，见 setCapacity；只有后台线程从中取出事件
+    private static volatile MpscRingBuffer<LogEvent> queue = new MpscRingBuffer<>(DEFAULT_CAPACITY);
+    private static final LongAdder droppedCount = new LongAdder();
+    private static final Thread writer = new Thread(ServerLog::writeLoop, "IRC-Log");
+    private static final AtomicBoolean writerParked = new AtomicBoolean(false);
+    private static volatile boolean isRunning = true;
+
+    static {
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private ServerLog() {
+    }
+
+    /**
+     * 按配置更换日志队列，由启动服务器的线程在其他线程开始记录日志之前调用
+     * 旧队列中已有的事件由后台线程写完后再切换到新队列
+     */
+    public static synchronized void setCapacity(int capacity) {
+        MpscRingBuffer<LogEvent> replacement = new MpscRingBuffer<>(Math.max(MIN_CAPACITY, capacity));
+        if (replacement.capacity() != queue.capacity()) {
+            queue = replacement;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    public static void info(String message) {
+        publish(new LogEvent(Kind.INFO, message, null));
+    }
+
+    public static void warn(String message) {
+        publish(new LogEvent(Kind.WARN, message, null));
+    }
+
+    public static void error(String message, Throwable error) {
+        publish(new LogEvent(Kind.ERROR, message, error));
+    }
+
+    /**
+     * 聊天、频道或系统消息，输出 {@link ChatMessage#getRecordText()}，系统消息前加 "System: "
+     * 纯文本在后台线程中生成并缓存在消息中，聊天存档可以直接复用
+     */
+    public static void message(ChatMessage message) {
+        publish(new LogEvent(message));
+    }
+
+    /**
+     * 因队列已满而丢弃的日志条数
+     */
+    public static long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public static int getBacklog() {
+        return queue.size();
+    }
+
+    /**
+     * 等待队列中已有的日志写完，用于关闭服务器前
+     */
+    public static void flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        LockSupport.unpark(writer);
+        while (queue.size() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        // 给后台线程留出把最后一批写出的时间
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+    }
+
+    public static void shutdown() {
+        flush(1000);
+        isRunning = false;
+        LockSupport.unpark(writer);
+    }
+
+    private static void publish(LogEvent event) {
+        if (!queue.offer(event)) {
+            droppedCount.increment();
+            return;
+        }
+        // 只有后台线程真正休眠时才唤醒，且每次休眠只唤醒一次
+        if (writerParked.get() && writerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static void writeLoop() {
+        StringBuilder batch = new StringBuilder(4096);
+        long reportedDropped = 0;
+        int idleSpins = 0;
+        MpscRingBuffer<LogEvent> current = queue;
+        while (isRunning || !current.isEmpty() || current != queue) {
+            LogEvent event = current.poll();
+            if (event == null) {
+                if (current != queue) {
+                    // 旧队列已经写完，换到 setCapacity 设置的新队列
+                    current = queue;
+                    continue;
+                }
+                if (++idleSpins < 100) {
+                    // 突发流量时短暂让出CPU，避免频繁休眠和唤醒
+                    Thread.yield();
+                    continue;
+                }
+                idleSpins = 0;
+                writerParked.set(true);
+                // 置位后再检查一次，避免错过刚入队的事件
+                if (current.isEmpty() && current == queue) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                writerParked.set(false);
+                continue;
+            }
+            idleSpins = 0;
+
+            int count = 0;
+            do {
+                format(event, batch);
+                count++;
+            } while (count < MAX_BATCH && (event = current.poll()) != null);
+
+            long dropped = droppedCount.sum();
+            if (dropped > reportedDropped) {
+                batch.append(TIME_FORMAT.format(Instant.now())).append(" [WARN] 日志队列已满，已丢弃 ")
+                        .append(dropped - reportedDropped).append(" 条日志\n");
+                reportedDropped = dropped;
+            }
+
+            System.out.print(batch);
+            System.out.flush();
+            batch.setLength(0);
+        }
+    }
+
+    // 同一秒内的事件复用格式化好的时间，只由后台线程访问
+    private static long cachedSecond = -1;
+    private static String cachedTime = "";
+
+    private static void format(LogEvent event, StringBuilder out) {
+        long second = event.time / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTime = TIME_FORMAT.format(Instant.ofEpochMilli(event.time));
+        }
+        out.append(cachedTime).append(' ');
+        switch (event.kind) {
+            case MESSAGE:
+                if (event.message.getKind() == ChatMessage.Kind.SYSTEM) {
+                    out.append("System: ");
+                }
+                out.append(event.message.getRecordText());
+                break;
+            case WARN:
+                out.append("[WARN] ").append(event.text);
+                break;
+            case ERROR:
+                out.append("[ERROR] ").append(event.text);
+                if (event.error != null) {
+                    StringWriter trace = new StringWriter();
+                    event.error.printStackTrace(new PrintWriter(trace));
+                    out.append('\n').append(trace.toString().trim());
+                }
+                break;
+            case INFO:
+            default:
+                out.append(event.text);
+                break;
+        }
+        out.append('\n');
+    }
+
+    /**
+     * 去除 &x 形式的颜色和格式代码
+     */
+    static void appendPlain(String message, StringBuilder out) {
+        int length = message.length();
+        for (int i = 0; i < length; i++) {
+            char c = message.charAt(i);
+            if (c == '&' && i + 1 < length && isFormatCode(message.charAt(i + 1))) {
+                i++;
+                continue;
+            }
+            out.append(c);
+        }
+    }
+
+    private static boolean isFormatCode(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'k' && c <= 'o') || c == 'r'
+                || (c >= 'A' && c <= 'F') || (c >= 'K' && c <= 'O') || c == 'R';
+    }
+}
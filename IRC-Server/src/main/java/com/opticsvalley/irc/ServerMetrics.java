@@ -0,0 +1,280 @@
+package com.opticsvalley.irc;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务器运行统计
+ * 计数器使用 LongAdder，多个线程同时更新时不会互相竞争；每秒采样一次计算速率
+ * 通过JMX、stats 指令和GUI查看
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private static final String OBJECT_NAME = "com.opticsvalley.irc:type=ServerMetrics";
+
+    private final IRCServer server;
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    // 发送队列满时被丢弃的消息，由各连接的发送队列直接累加
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder throttledMessages = new LongAdder();
+    // 没有回应心跳或没有按时登录而被断开的连接
+    private final LongAdder heartbeatTimeouts = new LongAdder();
+    // 压缩前后的字节数
+    private final LongAdder compressionBytesIn = new LongAdder();
+    private final LongAdder compressionBytesOut = new LongAdder();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    // 一次广播放入所有接收者发送队列的耗时
+    private final LatencyHistogram fanoutMicros = new LatencyHistogram();
+    // 从接受连接到收到用户名的耗时
+    private final LatencyHistogram loginMicros = new LatencyHistogram();
+    private final ScheduledExecutorService sampler;
+
+    // 最近一秒的速率，由采样线程更新
+    private volatile long messagesInPerSecond;
+    private volatile long messagesOutPerSecond;
+    private volatile long bytesWrittenPerSecond;
+    private long lastMessagesIn;
+    private long lastMessagesOut;
+    private long lastBytesWritten;
+    private long lastSampleNanos = System.nanoTime();
+
+    public ServerMetrics(IRCServer server) {
+        this.server = server;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "IRC-Metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 注册到平台MBeanServer，失败时只记录警告
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(this, name);
+        } catch (Exception e) {
+            ServerLog.warn("注册JMX统计失败: " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        sampler.shutdownNow();
+        try {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            ServerLog.warn("注销JMX统计失败: " + e.getMessage());
+        }
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        long in = messagesIn.sum();
+        long out = messagesOut.sum();
+        long bytes = bytesWritten.sum();
+        double seconds = (now - lastSampleNanos) / 1e9;
+        if (seconds > 0) {
+            messagesInPerSecond = Math.round((in - lastMessagesIn) / seconds);
+            messagesOutPerSecond = Math.round((out - lastMessagesOut) / seconds);
+            bytesWrittenPerSecond = Math.round((bytes - lastBytesWritten) / seconds);
+        }
+        lastMessagesIn = in;
+        lastMessagesOut = out;
+        lastBytesWritten = bytes;
+        lastSampleNanos = now;
+    }
+
+    void connectionOpened() {
+        activeConnections.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    void messageReceived() {
+        messagesIn.increment();
+    }
+
+    void messagesWritten(int messages, long bytes) {
+        if (messages > 0) {
+            messagesOut.add(messages);
+        }
+        if (bytes > 0) {
+            bytesWritten.add(bytes);
+        }
+    }
+
+    void sendFailed() {
+        sendFailures.increment();
+    }
+
+    void messageThrottled() {
+        throttledMessages.increment();
+    }
+
+    void heartbeatTimedOut() {
+        heartbeatTimeouts.increment();
+    }
+
+    void bytesCompressed(int input, int output) {
+        compressionBytesIn.add(input);
+        compressionBytesOut.add(output);
+    }
+
+    LongAdder droppedMessagesCounter() {
+        return droppedMessages;
+    }
+
+    void recordFanout(long nanos) {
+        fanoutMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    void recordLogin(long nanos) {
+        loginMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public int getOnlineUsers() {
+        return server.getOnlineCount();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getMessagesInPerSecond() {
+        return messagesInPerSecond;
+    }
+
+    @Override
+    public long getMessagesOutPerSecond() {
+        return messagesOutPerSecond;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public long getBytesWrittenPerSecond() {
+        return bytesWrittenPerSecond;
+    }
+
+    @Override
+    public long getSendFailures() {
+        return sendFailures.sum() + droppedMessages.sum();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    @Override
+    public long getThrottledMessages() {
+        return throttledMessages.sum();
+    }
+
+    @Override
+    public long getHeartbeatTimeouts() {
+        return heartbeatTimeouts.sum();
+    }
+
+    @Override
+    public long getCompressionBytesIn() {
+        return compressionBytesIn.sum();
+    }
+
+    @Override
+    public long getCompressionBytesOut() {
+        return compressionBytesOut.sum();
+    }
+
+    @Override
+    public long getBroadcasts() {
+        return fanoutMicros.getCount();
+    }
+
+    @Override
+    public long getFanoutP50Micros() {
+        return fanoutMicros.getPercentile(50);
+    }
+
+    @Override
+    public long getFanoutP99Micros() {
+        return fanoutMicros.getPercentile(99);
+    }
+
+    @Override
+    public long getFanoutP999Micros() {
+        return fanoutMicros.getPercentile(99.9);
+    }
+
+    @Override
+    public long getFanoutMaxMicros() {
+        return fanoutMicros.getMax();
+    }
+
+    @Override
+    public long getLoginP50Micros() {
+        return loginMicros.getPercentile(50);
+    }
+
+    @Override
+    public long getLoginP99Micros() {
+        return loginMicros.getPercentile(99);
+    }
+
+    @Override
+    public long getLoginMaxMicros() {
+        return loginMicros.getMax();
+    }
+
+    @Override
+    public long getLogBacklog() {
+        return ServerLog.getBacklog();
+    }
+
+    @Override
+    public long getLogDropped() {
+        return ServerLog.getDroppedCount();
+    }
+
+    @Override
+    public void resetHistograms() {
+        fanoutMicros.reset();
+        loginMicros.reset();
+    }
+}
@@ -0,0 +1,75 @@
+package com.opticsvalley.irc;
+
+/**
+ * 通过JMX公开的服务器统计，对象名为 com.opticsvalley.irc:type=ServerMetrics
+ * 延迟类指标单位为微秒，速率为最近一秒的值
+ */
+public interface ServerMetricsMBean {
+    int getActiveConnections();
+
+    int getOnlineUsers();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getMessagesInPerSecond();
+
+    long getMessagesOutPerSecond();
+
+    long getBytesWritten();
+
+    long getBytesWrittenPerSecond();
+
+    /**
+     * 发送失败总数：写出出错、因发送队列满而断开，以及被丢弃的消息
+     */
+    long getSendFailures();
+
+    long getDroppedMessages();
+
+    /**
+     * 因发送过快被限流而没有处理的消息数
+     */
+    long getThrottledMessages();
+
+    /**
+     * 没有回应心跳或没有按时登录而被断开的连接数
+     */
+    long getHeartbeatTimeouts();
+
+    /**
+     * 压缩前的字节数，只统计实际压缩了的批次
+     */
+    long getCompressionBytesIn();
+
+    /**
+     * 压缩后的字节数（含帧头）
+     */
+    long getCompressionBytesOut();
+
+    long getBroadcasts();
+
+    long getFanoutP50Micros();
+
+    long getFanoutP99Micros();
+
+    long getFanoutP999Micros();
+
+    long getFanoutMaxMicros();
+
+    long getLoginP50Micros();
+
+    long getLoginP99Micros();
+
+    long getLoginMaxMicros();
+
+    long getLogBacklog();
+
+    long getLogDropped();
+
+    /**
+     * 清空广播耗时和登录耗时的直方图，重新开始统计
+     */
+    void resetHistograms();
+}
@@ -0,0 +1,69 @@
+package com.opticsvalley.irc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 创建服务端使用的线程
+ * 虚拟线程需要 Java 21+，这里通过反射调用，使同一份字节码在 Java 17 上也能运行并回退到平台线程
+ */
+public final class ServerThreads {
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method NEW_VIRTUAL_EXECUTOR = findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+    private final boolean virtual;
+
+    public ServerThreads(ServerConfig.ThreadMode mode) {
+        boolean available = OF_VIRTUAL != null && NEW_VIRTUAL_EXECUTOR != null;
+        if (mode == ServerConfig.ThreadMode.VIRTUAL && !available) {
+            ServerLog.info("当前Java版本 " + Runtime.version() + " 不支持虚拟线程，使用平台线程");
+        }
+        this.virtual = mode == ServerConfig.ThreadMode.VIRTUAL && available;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * 处理客户端连接的线程池：虚拟线程模式下每个任务一个虚拟线程，否则为缓存线程池
+     */
+    public ExecutorService newConnectionExecutor() {
+        if (virtual) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                ServerLog.warn("创建虚拟线程池失败，使用平台线程: " + e.getMessage());
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * 启动一个命名线程
+     */
+    public Thread start(String name, Runnable task) {
+        if (virtual) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                builder = builderType.getMethod("name", String.class).invoke(builder, name);
+                return (Thread) builderType.getMethod("start", Runnable.class).invoke(builder, task);
+            } catch (ReflectiveOperationException e) {
+                ServerLog.warn("创建虚拟线程失败，使用平台线程: " + e.getMessage());
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.opticsvalley.irc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 移交进程时保存的会话，客户端重连时凭令牌恢复
+ * 令牌随机生成，与用户名绑定，只能使用一次，过期后作废。
+ * 旧进程退出前写入文件，新进程启动时读取后删除文件
+ */
+final class SessionHandoff {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int FILE_VERSION = 1;
+
+    private static final class Session {
+        final String username;
+        final Set<String> channels;
+        // 过期时间（墙上时钟，毫秒），跨进程有效
+        final long expiresAt;
+
+        Session(String username, Set<String> channels, long expiresAt) {
+            this.username = username;
+            this.channels = channels;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // 令牌 -> 会话
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * 为一个在线用户生成恢复令牌
+     */
+    String issue(String username, Set<String> channels, long ttlMillis) {
+        byte[] random = new byte[16];
+        RANDOM.nextBytes(random);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : random) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        String value = token.toString();
+        sessions.put(value, new Session(username, new HashSet<>(channels), System.currentTimeMillis() + ttlMillis));
+        return value;
+    }
+
+    /**
+     * 使用令牌恢复会话，令牌无论是否有效都会作废
+     * @return 会话加入过的频道，令牌无效、过期或不属于该用户时返回 null
+     */
+    Set<String> claim(String username, String token) {
+        Session session = sessions.remove(token);
+        if (session == null || !session.username.equals(username)
+                || session.expiresAt < System.currentTimeMillis()) {
+            return null;
+        }
+        return Collections.unmodifiableSet(session.channels);
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 写入移交文件，先写临时文件再替换，避免新进程读到写了一半的文件
+     */
+    void save(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(sessions.size());
+            for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+                Session session = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeUTF(session.username);
+                out.writeLong(session.expiresAt);
+                out.writeInt(session.channels.size());
+                for (String channel : session.channels) {
+                    out.writeUTF(channel);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取旧进程留下的移交文件并删除，文件不存在或损坏时返回空的集合
+     */
+    static SessionHandoff load(Path file) {
+        SessionHandoff handoff = new SessionHandoff();
+        if (!Files.isRegularFile(file)) {
+            return handoff;
+        }
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                throw new IOException("不支持的文件版本");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String token = in.readUTF();
+                String username = in.readUTF();
+                long expiresAt = in.readLong();
+                int channelCount = in.readInt();
+                Set<String> channels = new HashSet<>();
+                for (int j = 0; j < channelCount; j++) {
+                    channels.add(in.readUTF());
+                }
+                if (expiresAt >= now) {
+                    handoff.sessions.put(token, new Session(username, channels, expiresAt));
+                }
+            }
+        } catch (EOFException e) {
+            ServerLog.warn("移交文件不完整，已读取 " + handoff.size() + " 个会话");
+        } catch (IOException e) {
+            ServerLog.warn("读取移交文件失败: " + e.getMessage());
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            ServerLog.warn("删除移交文件失败: " + e.getMessage());
+        }
+        return handoff;
+    }
+}
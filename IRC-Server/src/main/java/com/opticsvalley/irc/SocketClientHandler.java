@@ -0,0 +1,328 @@
+package com.opticsvalley.irc;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 阻塞式I/O的客户端连接
+ * 读取占用一个线程；发送队列只在有消息时才提交一个写任务，写任务串行执行
+ */
+public class SocketClientHandler extends ClientHandler implements Runnable {
+    private Socket socket;
+    private final Executor writeExecutor;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private InputStream in;
+    private volatile OutputStream out;
+    // 以下缓冲区只在读线程中使用
+    private final byte[] readBuffer = new byte[8192];
+    private int readPosition;
+    private int readLimit;
+    // 跨越多次读取的一行或一帧
+    private byte[] lineBuffer = new byte[256];
+
+    public SocketClientHandler(Socket socket, IRCServer server, Executor writeExecutor) {
+        super(server);
+        this.socket = socket;
+        this.writeExecutor = writeExecutor;
+    }
+
+    @Override
+    public void run() {
+        try {
+            in = socket.getInputStream();
+            // 不回应心跳的旧客户端只能依靠TCP保活发现对方已经消失
+            socket.setKeepAlive(true);
+            ServerConfig config = server.getConfig();
+            out = new BufferedOutputStream(socket.getOutputStream(), config.getBatchMaxBytes());
+            if (config.isBatchEnabled()) {
+                // 由写任务自己合并小包，不再需要Nagle算法
+                socket.setTcpNoDelay(true);
+            }
+
+            // 握手之前（以及旧协议的客户端）按行读取，握手之后改为读取帧
+            String line;
+            while (isRunning() && !framed && (line = readLine()) != null) {
+                handleLine(line);
+            }
+            if (framed) {
+                readFrames();
+            }
+        } catch (SocketException e) {
+            // 套接字关闭或连接重置，这通常发生在服务器重启或客户端断开时
+            ServerLog.info("客户端连接断开: " + (username != null ? username : "未知用户"));
+        } catch (IOException e) {
+            // 其他IO异常
+            ServerLog.info("客户端连接异常: " + (username != null ? username : "未知用户") + " - " + e.getMessage());
+        } finally {
+            disconnect();
+        }
+    }
+
+    /**
+     * 读取一行UTF-8文本，去掉行尾的 \r\n，连接关闭时返回 null
+     * 整行都在读缓冲区中时直接从缓冲区解码，不再复制
+     */
+    private String readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (readPosition == readLimit && !fill()) {
+                if (length == 0) {
+                    return null;
+                }
+                return decodeLine(lineBuffer, 0, length);
+            }
+            int start = readPosition;
+            int end = start;
+            while (end < readLimit && readBuffer[end] != '\n') {
+                end++;
+            }
+            if (end < readLimit) {
+                readPosition = end + 1;
+                if (length == 0) {
+                    return decodeLine(readBuffer, start, end - start);
+                }
+                appendLine(start, end - start, length);
+                return decodeLine(lineBuffer, 0, length + end - start);
+            }
+            // 这一行还没读完，先存起来
+            appendLine(start, end - start, length);
+            length += end - start;
+            readPosition = end;
+        }
+    }
+
+    private void appendLine(int start, int count, int length) throws IOException {
+        if (length + count > IRCProtocol.MAX_FRAME_BYTES) {
+            throw new IOException("单行消息过长");
+        }
+        if (length + count > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.min(Math.max(length + count, lineBuffer.length * 2), IRCProtocol.MAX_FRAME_BYTES));
+        }
+        System.arraycopy(readBuffer, start, lineBuffer, length, count);
+    }
+
+    private static String decodeLine(byte[] bytes, int offset, int length) {
+        if (length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取帧直到连接关闭；整帧都在读缓冲区中时直接交给 {@link #handleFrame}，不再复制
+     */
+    private void readFrames() throws IOException {
+        while (isRunning()) {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (readPosition == readLimit && !fill()) {
+                    if (shift == 0) {
+                        // 连接已关闭
+                        return;
+                    }
+                    throw new EOFException("帧长度不完整");
+                }
+                if (shift >= 32) {
+                    throw new IOException("帧长度无效");
+                }
+                byte b = readBuffer[readPosition++];
+                length |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            if (length <= 0 || length > IRCProtocol.MAX_FRAME_BYTES) {
+                throw new IOException("帧长度无效: " + length);
+            }
+
+            if (readLimit - readPosition >= length) {
+                int start = readPosition;
+                readPosition += length;
+                handleFrame(readBuffer[start], readBuffer, start + 1, length - 1);
+                continue;
+            }
+            // 帧跨越了多次读取
+            if (length > lineBuffer.length) {
+                lineBuffer = new byte[Math.min(Math.max(length, lineBuffer.length * 2), IRCProtocol.MAX_FRAME_BYTES)];
+            }
+            int copied = 0;
+            while (copied < length) {
+                if (readPosition == readLimit && !fill()) {
+                    throw new EOFException("帧内容不完整");
+                }
+                int count = Math.min(length - copied, readLimit - readPosition);
+                System.arraycopy(readBuffer, readPosition, lineBuffer, copied, count);
+                readPosition += count;
+                copied += count;
+            }
+            handleFrame(lineBuffer[0], lineBuffer, 1, length - 1);
+        }
+    }
+
+    /**
+     * @return false 表示连接已关闭
+     */
+    private boolean fill() throws IOException {
+        int read = in.read(readBuffer);
+        readPosition = 0;
+        readLimit = Math.max(read, 0);
+        if (read > 0) {
+            touch();
+        }
+        return read > 0;
+    }
+
+    @Override
+    protected void scheduleFlush() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                writeExecutor.execute(this::drain);
+            } catch (Exception e) {
+                // 线程池已关闭
+                drainScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 写任务：把队列中的消息依次写出，同一时刻每个连接最多只有一个写任务
+     * 开启批量发送时，连接空闲时的单条消息立即发送；繁忙时在很短的时间内
+     * 把后续消息合并进同一次写出，减少系统调用和小TCP包
+     */
+    private void drain() {
+        OutputStream stream = out;
+        if (stream == null) {
+            // 连接已关闭
+            outbound.clear();
+            drainScheduled.set(false);
+            return;
+        }
+        ServerConfig config = server.getConfig();
+        boolean batching = config.isBatchEnabled();
+        int maxBytes = config.getBatchMaxBytes();
+        long lingerNanos = config.getBatchLingerNanos();
+        FrameCompressor compressor = this.compressor;
+        try {
+            while (true) {
+                int written = 0;
+                long writtenBytes = 0;
+                int unflushedBytes = 0;
+                long flushDeadline = 0;
+                OutboundMessage message = outbound.poll();
+                while (message != null) {
+                    int length = message.length(framed);
+                    if (compressor != null) {
+                        compressor.add(message);
+                    } else {
+                        message.writeTo(stream, framed);
+                        writtenBytes += length;
+                    }
+                    written++;
+                    if (unflushedBytes == 0) {
+                        flushDeadline = System.nanoTime() + lingerNanos;
+                    }
+                    unflushedBytes += length;
+                    if (!batching || unflushedBytes >= maxBytes) {
+                        writtenBytes += flush(stream, compressor);
+                        unflushedBytes = 0;
+                    }
+
+                    message = outbound.poll();
+                    if (message == null && unflushedBytes > 0 && written > 1) {
+                        // 本轮已写出多条，说明正处于繁忙期，稍等片刻再一起发送
+                        long remaining = flushDeadline - System.nanoTime();
+                        if (remaining > 0) {
+                            message = outbound.poll(remaining);
+                        }
+                    }
+                }
+                if (unflushedBytes > 0) {
+                    writtenBytes += flush(stream, compressor);
+                }
+                metrics.messagesWritten(written, writtenBytes);
+                drainScheduled.set(false);
+                // 清除标记后可能又有新消息入队
+                if (outbound.isEmpty() || !drainScheduled.compareAndSet(false, true)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            // 线程池正在关闭
+            Thread.currentThread().interrupt();
+            drainScheduled.set(false);
+            return;
+        } catch (IOException e) {
+            drainScheduled.set(false);
+            // 发送消息失败，可能是连接已关闭
+            if (isRunning()) {
+                ServerLog.warn("发送消息给 " + username + " 失败: " + e.getMessage());
+                recordSendFailure();
+                disconnect();
+            } else {
+                closeSocket();
+            }
+            return;
+        }
+
+        if (!isRunning()) {
+            // 连接正在关闭，断开通知已写出，可以关闭套接字
+            closeSocket();
+        }
+    }
+
+    /**
+     * 开启压缩时先把这一批帧压缩（或原样）写出，再刷新到套接字
+     * @return 压缩器写出的字节数
+     */
+    private static int flush(OutputStream stream, FrameCompressor compressor) throws IOException {
+        int written = compressor != null ? compressor.writeTo(stream) : 0;
+        stream.flush();
+        return written;
+    }
+
+    @Override
+    protected void closeConnection() {
+        // 关闭资源前，发送一个断开连接的通知
+        outbound.force(DISCONNECT_MESSAGE);
+        if (out != null && drainScheduled.compareAndSet(false, true)) {
+            // 没有正在进行的写任务，直接在当前线程写出通知并关闭
+            drain();
+        } else {
+            // 写任务可能正阻塞在一个读得慢的客户端上，直接关闭套接字让它结束
+            closeSocket();
+        }
+    }
+
+    /**
+     * 写任务可能正阻塞在死掉的连接上，直接关闭套接字，读线程随后因读取失败而完成断开
+     */
+    @Override
+    protected void abort() {
+        closeSocket();
+    }
+
+    private synchronized void closeSocket() {
+        // 关闭套接字会同时关闭输入输出流，并让阻塞在读取上的读线程退出
+        if (socket != null && !socket.isClosed()) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 忽略关闭套接字时的异常
+            }
+            socket = null;
+        }
+        // 套接字关闭后才释放，正在写出的写任务会因套接字关闭而结束
+        FrameCompressor compressor = this.compressor;
+        if (compressor != null) {
+            compressor.close();
+        }
+        in = null;
+        out = null;
+        outbound.clear();
+    }
+}
@@ -0,0 +1,150 @@
+package com.opticsvalley.irc;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 哈希时间轮：大量连接的超时检查共用一个线程，添加和取消都是 O(1)，不随定时任务的数量变慢
+ * 时间按固定的刻度推进，每个刻度只处理一个槽；延迟超过一圈的任务记录剩余的圈数。
+ * 其他线程添加的任务先放入队列，由时间轮线程在下一个刻度放进对应的槽；取消只做标记，经过该槽时再移除。
+ * 到期时间精确到一个刻度，任务在时间轮线程中执行，必须很快返回
+ */
+final class TimerWheel {
+    private final long tickNanos;
+    private final Timeout[] slots;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    // 等待到期的任务数，包括已取消但还没移除的
+    private final AtomicInteger size = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * 一个定时任务，只会执行一次
+     */
+    final class Timeout {
+        private final Runnable task;
+        // 相对于时间轮启动时间的到期时间
+        private final long deadline;
+        // 以下只由时间轮线程访问
+        private long remainingRounds;
+        private Timeout prev;
+        private Timeout next;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消后任务不会再执行，已经开始执行的不受影响
+         */
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * @param slotCount 槽的数量，向上取为2的幂；一圈的时长最好大于常用的延迟，减少剩余圈数的检查
+     */
+    TimerWheel(String name, long tick, TimeUnit unit, int slotCount) {
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        int capacity = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1;
+        this.slots = new Timeout[capacity];
+        this.mask = capacity - 1;
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay)));
+        size.incrementAndGet();
+        pending.add(timeout);
+        return timeout;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            long sleep = (tick + 1) * tickNanos - (System.nanoTime() - startNanos);
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            transferPending(tick);
+            expire(tick);
+            tick++;
+        }
+    }
+
+    private void transferPending(long tick) {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                size.decrementAndGet();
+                continue;
+            }
+            // 已经过期的任务放进当前的槽，本刻度就执行
+            long due = Math.max(tick, timeout.deadline / tickNanos);
+            timeout.remainingRounds = (due - tick) / slots.length;
+            int index = (int) (due & mask);
+            Timeout head = slots[index];
+            timeout.prev = null;
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            slots[index] = timeout;
+        }
+    }
+
+    private void expire(long tick) {
+        int index = (int) (tick & mask);
+        Timeout timeout = slots[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled) {
+                unlink(index, timeout);
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else {
+                unlink(index, timeout);
+                try {
+                    timeout.task.run();
+                } catch (Exception e) {
+                    ServerLog.warn("执行定时任务时出错: " + e.getMessage());
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private void unlink(int index, Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[index] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        size.decrementAndGet();
+    }
+}
@@ -0,0 +1,121 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BanStoreTest {
+    // 足够大，测试中不会自动写快照
+    private static final int NO_COMPACT = 1000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysJournalOnStartup() throws IOException {
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            store.ban("alice", "刷屏");
+            store.ban("bob", "广告");
+            store.unban("alice");
+        }
+        assertFalse(Files.exists(directory.resolve(BanStore.SNAPSHOT_FILE)));
+
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            assertEquals(1, store.size());
+            assertFalse(store.isBanned("alice"));
+            assertEquals("广告", store.getReason("bob"));
+        }
+    }
+
+    @Test
+    void replaysJournalOnTopOfSnapshot() throws IOException {
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            store.ban("alice", "刷屏");
+            store.compact();
+            store.ban("bob", "广告");
+        }
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            assertEquals(2, store.size());
+            assertEquals("刷屏", store.getReason("alice"));
+            assertEquals("广告", store.getReason("bob"));
+        }
+    }
+
+    @Test
+    void ignoresAndTruncatesPartialLastRecord() throws IOException {
+        Path journal = directory.resolve(BanStore.JOURNAL_FILE);
+        long firstRecordEnd;
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            store.ban("alice", "刷屏");
+            firstRecordEnd = Files.size(journal);
+            store.ban("bob", "广告");
+        }
+        // 模拟写第二条记录时进程崩溃
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(journal) - 3);
+        }
+
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            assertTrue(store.isBanned("alice"));
+            assertFalse(store.isBanned("bob"));
+            assertEquals(firstRecordEnd, Files.size(journal));
+            // 截掉残缺的记录后，新的记录接在完整记录之后
+            store.ban("carol", "辱骂");
+        }
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            assertEquals(2, store.size());
+            assertTrue(store.isBanned("alice"));
+            assertTrue(store.isBanned("carol"));
+        }
+    }
+
+    @Test
+    void corruptSnapshotIsKeptAsideAndJournalStillReplayed() throws IOException {
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            store.ban("alice", "刷屏");
+            store.compact();
+            store.ban("bob", "广告");
+        }
+        Path snapshot = directory.resolve(BanStore.SNAPSHOT_FILE);
+        byte[] data = Files.readAllBytes(snapshot);
+        data[data.length / 2] ^= 0x5A;
+        Files.write(snapshot, data);
+
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            assertFalse(store.isBanned("alice"));
+            assertTrue(store.isBanned("bob"));
+        }
+        assertFalse(Files.exists(snapshot));
+        assertTrue(Files.exists(directory.resolve(BanStore.SNAPSHOT_FILE + ".corrupt")));
+    }
+
+    @Test
+    void reopenHandsOverToNewStore() throws IOException {
+        BanStore previous = new BanStore(directory, NO_COMPACT);
+        previous.ban("alice", "刷屏");
+        BanStore reloaded = previous.reopen(directory, NO_COMPACT);
+        assertTrue(reloaded.isBanned("alice"));
+
+        // 重新加载之前取到旧实例的调用方，修改也要写入新实例
+        previous.ban("bob", "广告");
+        assertNull(previous.unban("carol"));
+        assertTrue(reloaded.isBanned("bob"));
+        previous.close();
+        reloaded.close();
+
+        try (BanStore store = new BanStore(directory, NO_COMPACT)) {
+            assertEquals(2, store.size());
+            assertTrue(store.isBanned("bob"));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChannelJoinTest {
+    private IRCServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = TestServers.newServer();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestServers.stopQuietly(server);
+    }
+
+    @Test
+    void joinKeepsMembershipWhileConnected() {
+        TestClient alice = new TestClient(server).login("alice");
+        alice.command("/join dev");
+        assertTrue(server.getChannelRegistry().getMembers("dev").contains(alice));
+        assertTrue(alice.getChannels().contains("dev"));
+
+        alice.disconnect();
+        assertFalse(server.getChannelRegistry().getMembers("dev").contains(alice));
+    }
+
+    @Test
+    void disconnectDuringJoinDoesNotLeaveStaleMember() {
+        // 在加入频道索引之后、记录到连接之前断开，断开清理看不到这个频道
+        TestClient bob = new TestClient(server) {
+            @Override
+            void addChannel(String channel) {
+                disconnect();
+                super.addChannel(channel);
+            }
+        }.login("bob");
+        bob.command("/join dev");
+
+        assertFalse(bob.isRunning());
+        assertFalse(server.getChannelRegistry().getMembers("dev").contains(bob));
+        assertFalse(bob.getChannels().contains("dev"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientHandlerTest {
+    private IRCServer server;
+    private TestClient alice;
+    private TestClient bob;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = TestServers.newServer("irc.fanout.shards", "1");
+        alice = new TestClient(server).login("alice");
+        bob = new TestClient(server).login("bob");
+        alice.command("/join dev");
+        bob.command("/join dev");
+        bob.received.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestServers.stopQuietly(server);
+    }
+
+    @Test
+    void chatFrameIsBroadcast() {
+        sendFrame(IRCProtocol.OP_CHAT, "你好".getBytes(StandardCharsets.UTF_8));
+        assertTrue(received(bob, "你好"));
+    }
+
+    @Test
+    void chatFrameWithLineBreakIsRejected() {
+        sendFrame(IRCProtocol.OP_CHAT, "hi\n&e[OpticsValleyIRC] &fadmin&r: 伪造".getBytes(StandardCharsets.UTF_8));
+        sendFrame(IRCProtocol.OP_CHAT, "hi\rthere".getBytes(StandardCharsets.UTF_8));
+        assertFalse(received(bob, "hi"));
+        assertTrue(received(alice, "控制字符"));
+    }
+
+    @Test
+    void channelFrameWithLineBreakIsRejected() {
+        sendFrame(IRCProtocol.OP_CHANNEL_CHAT, channelBody("dev", "ok"));
+        sendFrame(IRCProtocol.OP_CHANNEL_CHAT, channelBody("dev", "bad\nline"));
+        assertTrue(received(bob, "ok"));
+        assertFalse(received(bob, "bad"));
+    }
+
+    private void sendFrame(byte opcode, byte[] body) {
+        // 前后留出空位，确认按偏移量读取
+        byte[] data = new byte[body.length + 4];
+        System.arraycopy(body, 0, data, 2, body.length);
+        alice.handleFrame(opcode, data, 2, body.length);
+    }
+
+    private static byte[] channelBody(String channel, String text) {
+        byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[IRCProtocol.varintSize(name.length) + name.length + content.length];
+        int position = IRCProtocol.writeVarint(body, 0, name.length);
+        System.arraycopy(name, 0, body, position, name.length);
+        System.arraycopy(content, 0, body, position + name.length, content.length);
+        return body;
+    }
+
+    private static boolean received(TestClient client, String fragment) {
+        for (String text : client.received) {
+            if (text.contains(fragment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
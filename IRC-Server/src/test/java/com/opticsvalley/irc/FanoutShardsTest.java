@@ -0,0 +1,128 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FanoutShardsTest {
+    private IRCServer server;
+    private FanoutShards fanout;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // 离开通知不合并，断开时直接在分片线程上广播
+        server = TestServers.newServer("irc.fanout.shards", "2", "irc.presence.windowMillis", "0");
+        fanout = server.getFanout();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestServers.stopQuietly(server);
+    }
+
+    @Test
+    void disconnectInsideFanoutWhileOwnQueueIsFull() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // 收到 block 时卡住分片线程，让测试把该分片的队列填满
+        TestClient gate = new TestClient(server) {
+            @Override
+            public void send(OutboundMessage message) {
+                if ("block".equals(message.getText())) {
+                    blocked.countDown();
+                    awaitQuietly(release);
+                }
+                super.send(message);
+            }
+        };
+        // 收到 trigger 时像发送队列溢出那样在分片线程上断开
+        TestClient slow = null;
+        while (slow == null || fanout.indexOf(slow) != fanout.indexOf(gate)) {
+            slow = new TestClient(server) {
+                @Override
+                public void send(OutboundMessage message) {
+                    if ("trigger".equals(message.getText())) {
+                        disconnect();
+                        return;
+                    }
+                    super.send(message);
+                }
+            };
+        }
+        gate.login("gate");
+        slow.login("slow");
+        assertTrue(fanout.awaitIdle(5, TimeUnit.SECONDS));
+
+        fanout.publish(OutboundMessage.of("block"), List.of(gate));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        // 队列中是 trigger 加上填满剩余位置的消息；处理 trigger 时只空出一个位置，
+        // 断开需要提交移除客户端和离开通知两个任务
+        fanout.publish(OutboundMessage.of("trigger"), List.of(slow));
+        OutboundMessage filler = OutboundMessage.of("filler");
+        for (int i = 0; i < FanoutShards.QUEUE_CAPACITY - 1; i++) {
+            fanout.publish(filler, List.of(gate));
+        }
+        release.countDown();
+
+        assertTrue(fanout.awaitIdle(5, TimeUnit.SECONDS), "分片线程卡在自己的队列上");
+        assertFalse(slow.isRunning());
+        boolean noticed = false;
+        for (String text : gate.received) {
+            noticed |= text.contains("slow") && text.contains("离开");
+        }
+        assertTrue(noticed, "没有收到离开通知");
+    }
+
+    @Test
+    void publishFromShardThreadKeepsOrder() throws InterruptedException {
+        TestClient first = new TestClient(server).login("first");
+        TestClient second = new TestClient(server).login("second");
+        assertTrue(fanout.awaitIdle(5, TimeUnit.SECONDS));
+        first.received.clear();
+        second.received.clear();
+
+        // 在分片线程上连续提交的广播按提交顺序到达每个客户端
+        TestClient relay = new TestClient(server) {
+            @Override
+            public void send(OutboundMessage message) {
+                if ("relay".equals(message.getText())) {
+                    for (int i = 0; i < 100; i++) {
+                        fanout.publish(OutboundMessage.of("relayed-" + i));
+                    }
+                }
+                super.send(message);
+            }
+        }.login("relay");
+        assertTrue(fanout.awaitIdle(5, TimeUnit.SECONDS));
+        fanout.publish(OutboundMessage.of("relay"), List.of(relay));
+        assertTrue(fanout.awaitIdle(5, TimeUnit.SECONDS));
+        assertTrue(fanout.awaitIdle(5, TimeUnit.SECONDS));
+
+        for (TestClient client : List.of(first, second)) {
+            int expected = 0;
+            for (String text : client.received) {
+                if (text.startsWith("relayed-")) {
+                    assertTrue(text.equals("relayed-" + expected), client.getUsername() + " 收到 " + text);
+                    expected++;
+                }
+            }
+            assertTrue(expected == 100, client.getUsername() + " 只收到 " + expected + " 条");
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
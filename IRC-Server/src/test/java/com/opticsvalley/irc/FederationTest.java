@@ -0,0 +1,74 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FederationTest {
+    private IRCServer server;
+
+    @AfterEach
+    void tearDown() {
+        TestServers.stopQuietly(server);
+    }
+
+    @Test
+    void refusesToStartWithoutSecret() throws IOException {
+        server = TestServers.newServer("irc.federation.port", String.valueOf(freePort()));
+        assertNull(server.getFederation());
+    }
+
+    @Test
+    void listensOnConfiguredAddress() throws IOException {
+        int port = freePort();
+        server = TestServers.newServer("irc.federation.port", String.valueOf(port),
+                "irc.federation.bind", "127.0.0.1", "irc.federation.secret", "abc");
+        assertNotNull(server.getFederation());
+        assertEquals(port, server.getFederation().getLocalPort());
+    }
+
+    @Test
+    void rejectsPeerWithWrongSecret() throws IOException {
+        int port = freePort();
+        server = TestServers.newServer("irc.federation.port", String.valueOf(port),
+                "irc.federation.bind", "127.0.0.1", "irc.federation.secret", "abc");
+        for (String secret : new String[]{"", "ab", "abd", "abcd"}) {
+            // 密钥不正确时直接断开，不回复握手
+            assertEquals(-1, handshake(port, secret), "密钥 \"" + secret + "\" 被接受");
+        }
+        assertEquals(0, server.getFederation().getLinkCount());
+        // 密钥正确时对方回复握手行
+        assertEquals(Federation.HANDSHAKE_PREFIX.charAt(0), handshake(port, "abc"));
+    }
+
+    /**
+     * @return 对方回复的第一个字节，直接断开时为 -1
+     */
+    private static int handshake(int port, String secret) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write((Federation.HANDSHAKE_PREFIX + "intruder " + secret + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            socket.setSoTimeout(5000);
+            InputStream in = socket.getInputStream();
+            return in.read();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 压缩后的数据按模组的方式解析：外层帧和解压出的每一帧都受客户端的帧长度上限检查
+ */
+class FrameCompressorTest {
+    // 帧头为 varint 长度（3字节）加操作码
+    private static final int FRAME_OVERHEAD = 4;
+
+    private static IRCServer server;
+    private final Random random = new Random(42);
+    private FrameCompressor compressor;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        server = TestServers.newServer();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        TestServers.stopQuietly(server);
+    }
+
+    @BeforeEach
+    void setUp() {
+        compressor = new FrameCompressor(512, server.getMetrics());
+    }
+
+    @Test
+    void smallMessagesRoundTrip() throws IOException {
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            sent.add("&e[OpticsValleyIRC]&a<user" + (i % 17) + ">&r: 第 " + i + " 条消息");
+        }
+        assertEquals(sent, roundTrip(sent));
+    }
+
+    @Test
+    void messagesAroundInputLimitRoundTrip() throws IOException {
+        int limit = FrameCompressor.MAX_INPUT_BYTES;
+        List<String> sent = new ArrayList<>();
+        sent.add("前面的短消息");
+        sent.add(randomText(limit - FRAME_OVERHEAD));
+        sent.add(randomText(limit - FRAME_OVERHEAD + 1));
+        sent.add("中间的短消息");
+        sent.add(randomText(limit + 1));
+        sent.add(randomText(limit / 2));
+        sent.add(randomText(limit / 2 + 100));
+        sent.add("后面的短消息");
+        assertEquals(sent, roundTrip(sent));
+    }
+
+    @Test
+    void largeHistoryReplayIsSplitAtFrameBoundaries() throws IOException {
+        // 回放是一条多行消息，每行一帧，整体远大于单个压缩帧的上限
+        MessageHistory history = new MessageHistory(1000, 128 * 1024);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            String line = "&e[OpticsValleyIRC]&a<user" + i + ">&r: " + randomText(150);
+            history.add(OutboundMessage.of(line));
+            lines.add(line);
+        }
+        OutboundMessage replay = history.replay();
+        assertTrue(replay.length(true) > 3 * FrameCompressor.MAX_INPUT_BYTES);
+
+        compressor.add(OutboundMessage.of("登录通知"));
+        compressor.add(replay);
+        compressor.add(OutboundMessage.of("第一条新消息"));
+        List<String> received = drainAndDecode();
+
+        assertEquals("登录通知", received.get(0));
+        assertTrue(received.get(1).contains("最近的聊天记录"));
+        assertEquals(lines, received.subList(2, received.size() - 1));
+        assertEquals("第一条新消息", received.get(received.size() - 1));
+    }
+
+    @Test
+    void writeToRoundTrip() throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        List<String> sent = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            String line = "&a<user" + (i % 13) + ">&r: " + randomText(i % 200);
+            compressor.add(OutboundMessage.of(line));
+            sent.add(line);
+            if (i % 700 == 0) {
+                // 多次写出时两个输出缓冲区轮换使用
+                compressor.writeTo(wire);
+            }
+        }
+        compressor.writeTo(wire);
+        compressor.close();
+        assertEquals(sent, decode(wire.toByteArray()));
+    }
+
+    @Test
+    void closeDoesNotWaitForBlockedWrite() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        compressor.add(OutboundMessage.of("写出时对方不读取"));
+        Thread writer = new Thread(() -> {
+            try {
+                compressor.writeTo(stalled);
+            } catch (IOException ignored) {
+                // 不会发生
+            }
+        });
+        writer.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        try {
+            // 写出阻塞期间其他线程仍然可以加入消息和关闭
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                compressor.add(OutboundMessage.of("阻塞期间加入的消息"));
+                compressor.close();
+            });
+        } finally {
+            release.countDown();
+            writer.join(5000);
+        }
+    }
+
+    /**
+     * 分两批加入并取出，模拟多次写出共用同一个压缩流
+     */
+    private List<String> roundTrip(List<String> messages) throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        int half = messages.size() / 2;
+        for (int i = 0; i < messages.size(); i++) {
+            compressor.add(OutboundMessage.of(messages.get(i)));
+            if (i == half) {
+                drainTo(wire);
+            }
+        }
+        drainTo(wire);
+        compressor.close();
+        return decode(wire.toByteArray());
+    }
+
+    private List<String> drainAndDecode() throws IOException {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        drainTo(wire);
+        compressor.close();
+        return decode(wire.toByteArray());
+    }
+
+    private void drainTo(ByteArrayOutputStream wire) {
+        ByteBuffer buffer = compressor.drain();
+        if (buffer != null) {
+            wire.write(buffer.array(), buffer.position(), buffer.remaining());
+        }
+    }
+
+    private static List<String> decode(byte[] wire) throws IOException {
+        List<String> received = new ArrayList<>();
+        Inflater inflater = new Inflater();
+        try {
+            InputStream in = new ByteArrayInputStream(wire);
+            byte[] frame;
+            while ((frame = com.opticsvalley.IRCProtocol.readFrame(in)) != null) {
+                if (frame[0] == IRCProtocol.OP_COMPRESSED) {
+                    InputStream frames = new ByteArrayInputStream(inflate(inflater, frame));
+                    byte[] inner;
+                    while ((inner = com.opticsvalley.IRCProtocol.readFrame(frames)) != null) {
+                        received.add(text(inner));
+                    }
+                } else {
+                    received.add(text(frame));
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return received;
+    }
+
+    private static String text(byte[] frame) {
+        assertEquals(IRCProtocol.OP_MESSAGE, frame[0]);
+        return new String(frame, 1, frame.length - 1, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] frame) throws IOException {
+        inflater.setInput(frame, 1, frame.length - 1);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        try {
+            while (true) {
+                int length = inflater.inflate(chunk);
+                if (length > 0) {
+                    result.write(chunk, 0, length);
+                } else if (inflater.needsDictionary()) {
+                    inflater.setDictionary(IRCProtocol.DEFLATE_DICTIONARY);
+                } else if (inflater.needsInput() || inflater.finished()) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        assertTrue(result.size() <= FrameCompressor.MAX_INPUT_BYTES, "压缩帧包含的原始数据超过上限");
+        return result.toByteArray();
+    }
+
+    /**
+     * 随机的汉字几乎不能压缩，压缩帧的大小接近原始数据
+     * @param bytes UTF-8 编码后的字节数，每个汉字3字节，余数用 ASCII 补齐
+     */
+    private String randomText(int bytes) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < bytes / 3; i++) {
+            text.append((char) (0x4E00 + random.nextInt(0x5000)));
+        }
+        for (int i = 0; i < bytes % 3; i++) {
+            text.append('a');
+        }
+        return text.toString();
+    }
+}
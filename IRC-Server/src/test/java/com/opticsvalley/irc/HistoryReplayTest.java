@@ -0,0 +1,65 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryReplayTest {
+    private static final Pattern SEQUENCE = Pattern.compile("msg-(\\d+)");
+    private static final int MESSAGES = 2000;
+    // 只有一个分片时每条消息都在发送线程上逐个投递，客户端不宜过多
+    private static final int MAX_CLIENTS = 300;
+
+    private IRCServer server;
+
+    @AfterEach
+    void tearDown() {
+        TestServers.stopQuietly(server);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 4})
+    void replayPlusLiveMessagesHaveNoGapOrDuplicate(int shards) throws Exception {
+        // 只有一个分片时在发送线程上直接投递，和登录线程并发
+        server = TestServers.newServer("irc.fanout.shards", String.valueOf(shards), "irc.history.messages", "20");
+        Thread sender = new Thread(() -> {
+            for (int i = 0; i < MESSAGES; i++) {
+                server.deliverChat("sender", "msg-" + i);
+            }
+        });
+        List<TestClient> clients = new ArrayList<>();
+        sender.start();
+        for (int i = 0; (sender.isAlive() && i < MAX_CLIENTS) || i < 10; i++) {
+            clients.add(new TestClient(server).login("user" + i));
+            // 登录分散在发送期间
+            Thread.sleep(1);
+        }
+        sender.join();
+        server.awaitFanout();
+
+        for (TestClient client : clients) {
+            List<Integer> seen = new ArrayList<>();
+            for (String text : client.received) {
+                Matcher matcher = SEQUENCE.matcher(text);
+                while (matcher.find()) {
+                    seen.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+            assertTrue(!seen.isEmpty(), "没有收到任何消息");
+            // 回放的最后几条和之后的实时消息应当首尾相接，到最后一条为止
+            for (int i = 1; i < seen.size(); i++) {
+                assertEquals(seen.get(i - 1) + 1, seen.get(i), client.getUsername() + " 收到的消息不连续");
+            }
+            assertEquals(MESSAGES - 1, seen.get(seen.size() - 1));
+        }
+    }
+}
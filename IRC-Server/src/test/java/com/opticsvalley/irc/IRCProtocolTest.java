@@ -0,0 +1,125 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 服务端和模组各有一份 IRCProtocol（模组不依赖服务端），这里检查两份保持一致，
+ * 并检查 varint 在两端之间的编解码
+ */
+class IRCProtocolTest {
+    private static final int[] VARINT_SAMPLES = {
+            0, 1, 127, 128, 300, 16383, 16384, (1 << 21) - 1, 1 << 21, (1 << 28) - 1, 1 << 28,
+            Integer.MAX_VALUE, -1, Integer.MIN_VALUE
+    };
+
+    @Test
+    void clientCopyHasSameConstants() throws IllegalAccessException {
+        Map<String, Object> server = constants(IRCProtocol.class);
+        Map<String, Object> client = constants(com.opticsvalley.IRCProtocol.class);
+        assertEquals(server.keySet(), client.keySet());
+        for (Map.Entry<String, Object> entry : server.entrySet()) {
+            Object expected = entry.getValue();
+            Object actual = client.get(entry.getKey());
+            if (expected instanceof byte[]) {
+                // 预置字典不一致时客户端无法解压
+                assertArrayEquals((byte[]) expected, (byte[]) actual, entry.getKey());
+            } else {
+                assertEquals(expected, actual, entry.getKey());
+            }
+        }
+    }
+
+    @Test
+    void varintSizes() {
+        assertEquals(1, IRCProtocol.varintSize(0));
+        assertEquals(1, IRCProtocol.varintSize(127));
+        assertEquals(2, IRCProtocol.varintSize(128));
+        assertEquals(4, IRCProtocol.varintSize((1 << 28) - 1));
+        assertEquals(5, IRCProtocol.varintSize(1 << 28));
+        assertEquals(5, IRCProtocol.varintSize(Integer.MAX_VALUE));
+        // 负数按无符号处理，总是5个字节
+        assertEquals(5, IRCProtocol.varintSize(-1));
+    }
+
+    @Test
+    void varintRoundTripBetweenServerAndClient() throws IOException {
+        for (int value : VARINT_SAMPLES) {
+            byte[] encoded = serverVarint(value);
+            assertEquals(IRCProtocol.varintSize(value), encoded.length, "长度 " + value);
+            assertEquals(value, IRCProtocol.readVarint(ByteBuffer.wrap(encoded)), "服务端 ByteBuffer " + value);
+            assertEquals(value, IRCProtocol.readVarint(new ByteArrayInputStream(encoded)), "服务端流 " + value);
+            assertEquals(value, com.opticsvalley.IRCProtocol.readVarint(new ByteArrayInputStream(encoded)), "客户端 " + value);
+        }
+    }
+
+    @Test
+    void clientFrameLengthDecodesOnServer() throws IOException {
+        // 客户端编码的帧长度是 varint，长度超过127时占两个字节
+        for (int length : new int[]{0, 126, 127, 200, 20000}) {
+            char[] text = new char[length];
+            Arrays.fill(text, 'x');
+            byte[] frame = com.opticsvalley.IRCProtocol.encode(IRCProtocol.OP_CHAT, new String(text));
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            assertEquals(length + 1, IRCProtocol.readVarint(buffer));
+            assertEquals(IRCProtocol.OP_CHAT, buffer.get());
+            assertEquals(length, buffer.remaining());
+        }
+    }
+
+    @Test
+    void truncatedVarint() throws IOException {
+        byte[] encoded = serverVarint(1 << 28);
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length - 1);
+
+        // 缓冲区中数据不完整时返回 -1，等待更多数据
+        assertEquals(-1, IRCProtocol.readVarint(ByteBuffer.wrap(truncated)));
+        assertEquals(-1, IRCProtocol.readVarint(ByteBuffer.allocate(0)));
+        // 流在第一个字节前结束表示连接关闭，读到一半结束则是错误
+        assertEquals(-1, IRCProtocol.readVarint(new ByteArrayInputStream(new byte[0])));
+        assertEquals(-1, com.opticsvalley.IRCProtocol.readVarint(new ByteArrayInputStream(new byte[0])));
+        assertThrows(EOFException.class, () -> IRCProtocol.readVarint(new ByteArrayInputStream(truncated)));
+        assertThrows(EOFException.class,
+                () -> com.opticsvalley.IRCProtocol.readVarint(new ByteArrayInputStream(truncated)));
+    }
+
+    @Test
+    void overlongVarintIsRejected() {
+        byte[] overlong = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01};
+        assertThrows(IOException.class, () -> IRCProtocol.readVarint(ByteBuffer.wrap(overlong)));
+        assertThrows(IOException.class, () -> IRCProtocol.readVarint(new ByteArrayInputStream(overlong)));
+        assertThrows(IOException.class,
+                () -> com.opticsvalley.IRCProtocol.readVarint(new ByteArrayInputStream(overlong)));
+    }
+
+    private static byte[] serverVarint(int value) {
+        byte[] encoded = new byte[IRCProtocol.varintSize(value)];
+        assertEquals(encoded.length, IRCProtocol.writeVarint(encoded, 0, value));
+        return encoded;
+    }
+
+    private static Map<String, Object> constants(Class<?> type) throws IllegalAccessException {
+        Map<String, Object> constants = new TreeMap<>();
+        for (Field field : type.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers)) {
+                field.setAccessible(true);
+                constants.put(field.getName(), field.get(null));
+            }
+        }
+        return constants;
+    }
+}
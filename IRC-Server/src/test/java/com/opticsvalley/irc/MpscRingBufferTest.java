@@ -0,0 +1,141 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpscRingBufferTest {
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new MpscRingBuffer<>(1).capacity());
+        assertEquals(8, new MpscRingBuffer<>(5).capacity());
+        assertEquals(1024, new MpscRingBuffer<>(1024).capacity());
+    }
+
+    @Test
+    void offerFailsWhenFullAndRecoversAfterPoll() {
+        MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+
+        assertEquals(0, queue.poll());
+        assertTrue(queue.offer(4));
+        assertFalse(queue.offer(5));
+        // 绕过一圈后顺序不变
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * 多个生产者同时写入一个很小的队列，队列满时重试；消费者收到的每个元素恰好一次，且同一生产者的顺序不变
+     */
+    @Test
+    void multipleProducersLoseAndDuplicateNothing() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 200_000;
+        MpscRingBuffer<long[]> queue = new MpscRingBuffer<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long sequence = 0; sequence < perProducer; sequence++) {
+                    long[] element = {producer, sequence};
+                    while (!queue.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long[] next = new long[producers];
+        long received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        start.countDown();
+        while (received < (long) producers * perProducer) {
+            long[] element = queue.poll();
+            if (element == null) {
+                assertTrue(System.nanoTime() < deadline, "超时，只收到 " + received + " 个元素");
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) element[0];
+            // 序号跳跃表示丢失，回退表示重复
+            assertEquals(next[producer], element[1], "生产者 " + producer + " 的序号不连续");
+            next[producer]++;
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(queue.poll());
+        for (int p = 0; p < producers; p++) {
+            assertEquals(perProducer, next[p]);
+        }
+    }
+
+    /**
+     * 生产者在队列满时不重试：成功入队的元素都能取出，失败的次数与取出的个数之和等于尝试次数
+     */
+    @Test
+    void failedOffersAreNeverDelivered() throws InterruptedException {
+        MpscRingBuffer<Integer> queue = new MpscRingBuffer<>(16);
+        int producers = 4;
+        int attempts = 100_000;
+        int[] accepted = new int[producers];
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < attempts; i++) {
+                    if (queue.offer(producer)) {
+                        accepted[producer]++;
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        int[] received = new int[producers];
+        boolean done = false;
+        while (!done) {
+            done = threads.stream().noneMatch(Thread::isAlive);
+            Integer element;
+            while ((element = queue.poll()) != null) {
+                received[element]++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Integer element;
+        while ((element = queue.poll()) != null) {
+            received[element]++;
+        }
+        for (int p = 0; p < producers; p++) {
+            assertEquals(accepted[p], received[p]);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.opticsvalley.irc;
+
+import com.opticsvalley.IRCProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NioClientHandlerTest {
+    private static final int MESSAGES = 12000;
+
+    private IRCServer server;
+
+    @AfterEach
+    void tearDown() {
+        TestServers.stopQuietly(server);
+    }
+
+    @Test
+    void acceptsManySmallFramesInOneWrite() throws Exception {
+        server = TestServers.newServer("irc.io.mode", "nio", "irc.presence.windowMillis", "0",
+                "irc.ratelimit.perSecond", "0", "irc.outbound.capacity", String.valueOf(MESSAGES * 2));
+        server.startAcceptor();
+        try (Socket receiver = connect(); Socket sender = connect()) {
+            receiver.getOutputStream().write("receiver\n".getBytes(StandardCharsets.UTF_8));
+            BufferedReader receiverIn = new BufferedReader(new InputStreamReader(receiver.getInputStream(), StandardCharsets.UTF_8));
+            sender.getOutputStream().write((IRCProtocol.HANDSHAKE_PREFIX + "sender\n").getBytes(StandardCharsets.UTF_8));
+            String reply = IRCProtocol.readLine(sender.getInputStream());
+            assertNotNull(reply);
+            assertTrue(reply.startsWith(IRCProtocol.HANDSHAKE_OK), reply);
+            while (server.getOnlineCount() < 2) {
+                Thread.sleep(10);
+            }
+
+            // 远大于单帧上限的一批小帧，服务端一次读取就会拿到很多个完整的帧
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            for (int i = 0; i < MESSAGES; i++) {
+                batch.write(IRCProtocol.encode(IRCProtocol.OP_CHAT, "m" + i));
+            }
+            assertTrue(batch.size() > IRCProtocol.MAX_FRAME_BYTES * 2);
+            sender.getOutputStream().write(batch.toByteArray());
+            sender.getOutputStream().flush();
+
+            int next = 0;
+            while (next < MESSAGES) {
+                String line = receiverIn.readLine();
+                assertNotNull(line, "接收端连接被关闭");
+                int index = line.lastIndexOf(" m");
+                if (index >= 0 && line.contains("sender")) {
+                    assertEquals("m" + next, line.substring(index + 1));
+                    next++;
+                }
+            }
+            assertEquals(2, server.getOnlineCount());
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+}
@@ -0,0 +1,121 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    private static final long START = 1_000_000_000L;
+    // 每秒5条，连续最多10条：每条间隔200ms，允许超前1800ms
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final RateLimiter limiter = new RateLimiter(5, 10, START);
+
+    @Test
+    void fullBucketAllowsExactlyBurst() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire(START), "第 " + (i + 1) + " 条");
+        }
+        assertFalse(limiter.tryAcquire(START));
+    }
+
+    @Test
+    void nextTokenArrivesExactlyOneIntervalLater() {
+        drain(START);
+        assertFalse(limiter.tryAcquire(START + INTERVAL - 1));
+        assertTrue(limiter.tryAcquire(START + INTERVAL));
+        assertFalse(limiter.tryAcquire(START + INTERVAL));
+        assertFalse(limiter.tryAcquire(START + 2 * INTERVAL - 1));
+        assertTrue(limiter.tryAcquire(START + 2 * INTERVAL));
+    }
+
+    @Test
+    void rejectedAttemptsDoNotConsumeTokens() {
+        drain(START);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(limiter.tryAcquire(START + i));
+        }
+        assertTrue(limiter.tryAcquire(START + INTERVAL));
+    }
+
+    @Test
+    void sustainedRateAfterBurstIsAllowed() {
+        drain(START);
+        for (int i = 1; i <= 50; i++) {
+            long now = START + i * INTERVAL;
+            assertTrue(limiter.tryAcquire(now), "第 " + i + " 个间隔");
+            assertFalse(limiter.tryAcquire(now));
+        }
+    }
+
+    @Test
+    void idleTimeRefillsAtMostOneBurst() {
+        drain(START);
+        // 空闲很久之后桶也只是满的，不会攒下更多令牌
+        long later = START + TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire(later));
+        }
+        assertFalse(limiter.tryAcquire(later));
+    }
+
+    @Test
+    void partialRefillAfterIdle() {
+        drain(START);
+        // 空闲3个间隔，恢复3个令牌
+        long later = START + 3 * INTERVAL;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(later));
+        }
+        assertFalse(limiter.tryAcquire(later));
+    }
+
+    @Test
+    void burstOfOneAllowsOnlyTheRate() {
+        RateLimiter strict = new RateLimiter(5, 1, START);
+        assertTrue(strict.tryAcquire(START));
+        assertFalse(strict.tryAcquire(START));
+        assertFalse(strict.tryAcquire(START + INTERVAL - 1));
+        assertTrue(strict.tryAcquire(START + INTERVAL));
+    }
+
+    @Test
+    void concurrentCallersShareTheBurst() throws InterruptedException {
+        int threads = 8;
+        AtomicInteger passed = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 1000; i++) {
+                        if (limiter.tryAcquire(START)) {
+                            passed.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                    // 测试线程不会被中断
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(10, passed.get());
+    }
+
+    private void drain(long now) {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire(now));
+        }
+        assertFalse(limiter.tryAcquire(now));
+    }
+}
@@ -0,0 +1,41 @@
+package com.opticsvalley.irc;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 不走网络的客户端，记录收到的每条消息的文本
+ * 加入时的回放和分片线程的投递可能同时发生，取出消息时加锁以保持入队的顺序
+ */
+class TestClient extends ClientHandler {
+    final List<String> received = new CopyOnWriteArrayList<>();
+
+    TestClient(IRCServer server) {
+        super(server);
+    }
+
+    /**
+     * 以旧协议登录，第一行就是用户名
+     */
+    TestClient login(String name) {
+        handleLine(name);
+        return this;
+    }
+
+    void command(String line) {
+        handleLine(line);
+    }
+
+    @Override
+    protected synchronized void scheduleFlush() {
+        OutboundMessage message;
+        while ((message = outbound.poll()) != null) {
+            received.add(message.getText());
+        }
+    }
+
+    @Override
+    protected void closeConnection() {
+        outbound.clear();
+    }
+}
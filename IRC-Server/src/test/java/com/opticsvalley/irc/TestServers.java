@@ -0,0 +1,42 @@
+package com.opticsvalley.irc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * 测试共用的服务器创建和清理方法
+ */
+final class TestServers {
+    private TestServers() {
+    }
+
+    /**
+     * 用系统分配的端口创建服务器，封禁列表写到临时目录
+     * @param overrides 形如 "irc.io.mode", "nio" 的键值对
+     */
+    static IRCServer newServer(String... overrides) throws IOException {
+        System.setProperty("irc.port", "0");
+        System.setProperty("irc.bans.dir", Files.createTempDirectory("irc-test-bans").toString());
+        for (int i = 0; i + 1 < overrides.length; i += 2) {
+            System.setProperty(overrides[i], overrides[i + 1]);
+        }
+        try {
+            return new IRCServer(ServerConfig.load());
+        } finally {
+            for (int i = 0; i + 1 < overrides.length; i += 2) {
+                System.clearProperty(overrides[i]);
+            }
+        }
+    }
+
+    static void stopQuietly(IRCServer server) {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.stop();
+        } catch (IOException ignored) {
+            // 测试结束时忽略关闭异常
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.opticsvalley.irc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用很小的时间轮（10ms 一格，4 格，一圈 40ms），让延迟很容易超过一圈
+ * 只检查不会提前执行和最终会执行，不检查准时程度，避免在繁忙的机器上偶尔失败
+ */
+class TimerWheelTest {
+    private static final long TICK_MILLIS = 10;
+    private static final long ROUND_MILLIS = 4 * TICK_MILLIS;
+
+    private final TimerWheel wheel = new TimerWheel("TimerWheelTest", TICK_MILLIS, TimeUnit.MILLISECONDS, 4);
+
+    @AfterEach
+    void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    void firesNoEarlierThanDelay() throws InterruptedException {
+        long start = System.nanoTime();
+        CountDownLatch fired = new CountDownLatch(1);
+        long[] firedAt = new long[1];
+        wheel.schedule(() -> {
+            firedAt[0] = System.nanoTime();
+            fired.countDown();
+        }, 25, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(firedAt[0] - start >= TimeUnit.MILLISECONDS.toNanos(25));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void multiRoundTimerWaitsForAllRounds() throws InterruptedException {
+        // 3 圈多一点，会多次经过自己所在的槽
+        long delay = 3 * ROUND_MILLIS + 15;
+        long start = System.nanoTime();
+        CountDownLatch fired = new CountDownLatch(1);
+        long[] firedAt = new long[1];
+        wheel.schedule(() -> {
+            firedAt[0] = System.nanoTime();
+            fired.countDown();
+        }, delay, TimeUnit.MILLISECONDS);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertTrue(firedAt[0] - start >= TimeUnit.MILLISECONDS.toNanos(delay),
+                "提前了 " + (TimeUnit.MILLISECONDS.toNanos(delay) - (firedAt[0] - start)) + "ns");
+    }
+
+    @Test
+    void timersInSameSlotFireInRoundOrder() throws InterruptedException {
+        // 相差整圈的延迟落在同一个槽中，只靠剩余圈数区分
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch fired = new CountDownLatch(4);
+        for (int round : new int[]{3, 0, 2, 1}) {
+            wheel.schedule(() -> {
+                order.add(round);
+                fired.countDown();
+            }, 30 + round * ROUND_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(0, 1, 2, 3), order);
+    }
+
+    @Test
+    void cancelledBeforeTransferNeverRuns() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        wheel.schedule(runs::incrementAndGet, 20, TimeUnit.MILLISECONDS).cancel();
+        CountDownLatch later = new CountDownLatch(1);
+        wheel.schedule(later::countDown, 60, TimeUnit.MILLISECONDS);
+
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+        awaitSize(0);
+    }
+
+    @Test
+    void cancelledInWheelIsRemovedLazily() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        // 多圈之后才到期，取消时已经放进槽里
+        TimerWheel.Timeout timeout = wheel.schedule(runs::incrementAndGet, 2 * ROUND_MILLIS, TimeUnit.MILLISECONDS);
+        Thread.sleep(3 * TICK_MILLIS);
+        timeout.cancel();
+        assertEquals(1, wheel.size());
+
+        // 取消的任务在时间轮经过它所在的槽时移除，不用等到原定的到期时间
+        awaitSize(0);
+        Thread.sleep(3 * ROUND_MILLIS);
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void cancellingOneTimerKeepsItsNeighbours() throws InterruptedException {
+        // 同一个槽中的链表，取消中间的一个不影响前后的任务
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch fired = new CountDownLatch(2);
+        wheel.schedule(() -> {
+            runs.incrementAndGet();
+            fired.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+        TimerWheel.Timeout middle = wheel.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> {
+            runs.incrementAndGet();
+            fired.countDown();
+        }, 50, TimeUnit.MILLISECONDS);
+        Thread.sleep(2 * TICK_MILLIS);
+        middle.cancel();
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Thread.sleep(ROUND_MILLIS);
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheWheel() throws InterruptedException {
+        wheel.schedule(() -> {
+            throw new IllegalStateException("测试异常");
+        }, 10, TimeUnit.MILLISECONDS);
+        CountDownLatch fired = new CountDownLatch(1);
+        wheel.schedule(fired::countDown, 30, TimeUnit.MILLISECONDS);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitSize(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (wheel.size() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(TICK_MILLIS);
+        }
+        assertEquals(expected, wheel.size());
+    }
+}
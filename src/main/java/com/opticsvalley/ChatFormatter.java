@@ -0,0 +1,94 @@
+package com.opticsvalley;
+
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Style;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 把带 &amp; 颜色代码的消息一次解析成带样式的 Text，游戏渲染聊天栏时不再需要逐字解析格式代码
+ * 加入/离开、封禁、服务器通知等重复出现的系统消息，以及聊天消息的前缀（含用户名）放在一个小的 LRU 缓存中，
+ * 再次出现时直接复用，不再重新解析和分配
+ */
+public class ChatFormatter {
+    // 聊天和频道消息以此开头，前缀到 "&r: " 为止，之后是玩家输入的内容
+    private static final String CHAT_PREFIX = "&e[OpticsValleyIRC]";
+    private static final String CHAT_PREFIX_END = "&r: ";
+    private static final int CACHE_SIZE = 128;
+
+    // 按访问顺序排列，超过容量时移除最久没用到的
+    private final Map<String, Text> cache = new LinkedHashMap<>(CACHE_SIZE * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Text> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * 解析一条消息，&amp; 和 § 都视为格式代码的开头，后面不是有效代码时按普通字符显示
+     */
+    public Text format(String message) {
+        if (message.startsWith(CHAT_PREFIX)) {
+            int end = message.indexOf(CHAT_PREFIX_END, CHAT_PREFIX.length());
+            if (end > 0) {
+                end += CHAT_PREFIX_END.length();
+                Text prefix = cached(message.substring(0, end));
+                if (end == message.length()) {
+                    return prefix;
+                }
+                // 前缀以 &r 结尾，内容从默认样式开始，可以单独解析
+                return Text.empty().append(prefix).append(parse(message, end, message.length()));
+            }
+        }
+        return cached(message);
+    }
+
+    private Text cached(String message) {
+        synchronized (cache) {
+            Text text = cache.get(message);
+            if (text == null) {
+                text = parse(message, 0, message.length());
+                cache.put(message, text);
+            }
+            return text;
+        }
+    }
+
+    /**
+     * 颜色代码清除之前的粗体等格式，&amp;r 恢复默认样式，与游戏中的格式代码规则相同
+     */
+    static MutableText parse(String message, int start, int end) {
+        MutableText root = Text.empty();
+        Style style = Style.EMPTY;
+        int runStart = start;
+        for (int i = start; i < end - 1; i++) {
+            char c = message.charAt(i);
+            if (c != '&' && c != '§') {
+                continue;
+            }
+            Formatting formatting = Formatting.byCode(message.charAt(i + 1));
+            if (formatting == null) {
+                continue;
+            }
+            if (i > runStart) {
+                root.append(Text.literal(message.substring(runStart, i)).setStyle(style));
+            }
+            if (formatting == Formatting.RESET) {
+                style = Style.EMPTY;
+            } else if (formatting.isColor()) {
+                style = Style.EMPTY.withColor(formatting);
+            } else {
+                style = style.withFormatting(formatting);
+            }
+            i++;
+            runStart = i + 1;
+        }
+        if (runStart < end) {
+            root.append(Text.literal(message.substring(runStart, end)).setStyle(style));
+        }
+        return root;
+    }
+}
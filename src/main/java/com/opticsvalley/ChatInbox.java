@@ -0,0 +1,77 @@
+package com.opticsvalley;
+
+import net.minecraft.text.Text;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 收到的IRC消息先放入无锁队列，由客户端 tick 事件在游戏线程中批量显示
+ * 每个 tick 显示的条数和耗时都有上限，聊天刷屏时多出的消息留到之后的 tick，
+ * 不会再像每条消息提交一个任务那样占满游戏线程的任务队列而造成卡顿
+ */
+public class ChatInbox {
+    // 每个 tick 最多显示的消息数
+    private static final int MAX_PER_TICK = 20;
+    // 每个 tick 用于显示消息的时间上限
+    private static final long BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // 超过聊天栏能保留的条数后丢弃最旧的消息，反正已经看不到了
+    private static final int MAX_PENDING = 100;
+
+    private final Queue<Text> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    // 因预算用完推迟到下一个 tick 的消息数，一条消息推迟多次时计多次
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * 放入一条已解析好样式的消息，可以在任意线程调用，不会阻塞
+     */
+    public void offer(Text message) {
+        pending.add(message);
+        if (size.incrementAndGet() > MAX_PENDING && pending.poll() != null) {
+            size.decrementAndGet();
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 在游戏线程中显示等待中的消息，直到队列为空或用完本 tick 的预算
+     */
+    public void drain(Consumer<Text> display) {
+        if (size.get() == 0) {
+            return;
+        }
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        int shown = 0;
+        while (shown < MAX_PER_TICK && (shown == 0 || System.nanoTime() < deadline)) {
+            Text message = pending.poll();
+            if (message == null) {
+                return;
+            }
+            size.decrementAndGet();
+            display.accept(message);
+            shown++;
+        }
+        int remaining = size.get();
+        if (remaining > 0) {
+            deferredCount.addAndGet(remaining);
+        }
+    }
+
+    public int getPendingCount() {
+        return size.get();
+    }
+
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
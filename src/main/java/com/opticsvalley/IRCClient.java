@@ -6,8 +6,15 @@ import java.io.*;
 import java.net.Socket;
 import java.net.ConnectException;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 public class IRCClient {
     private static final String HOST = "localhost";
@@ -15,17 +22,34 @@ public class IRCClient {
     private static final int INITIAL_RECONNECT_DELAY = 2000; // 初始重连延迟2秒
     private static final int MAX_RECONNECT_DELAY = 30000; // 最大重连延迟30秒
     private static final int MAX_RECONNECT_ATTEMPTS = 10; // 最大重连尝试次数
+    private static final int RECONNECT_JITTER = 2000; // 断开后重连时间的随机偏移，避免所有玩家同时重连
 
     private final String username;
+    private static final int HANDSHAKE_TIMEOUT = 5000; // 等待握手应答5秒
+
     private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private OutputStream out;
+    private InputStream in;
     private volatile boolean connected = false;
+    // 握手成功后为 true，收发二进制帧，见 IRCProtocol
+    private volatile boolean framed = false;
+    // 服务端同意压缩发给本客户端的数据
+    private volatile boolean compressed = false;
+    // 服务端移交进程前发来的恢复令牌和建议的重连延迟，下次握手时使用一次
+    private volatile String resumeToken;
+    private volatile int resumeDelay;
+    // 最近一次握手恢复了之前的会话
+    private boolean resumed = false;
     private volatile boolean shouldReconnect = true;
     private int reconnectAttempts = 0;
     private int currentReconnectDelay = INITIAL_RECONNECT_DELAY;
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
     private Thread messageListener;
+    // 已加入的频道，重连后自动重新加入
+    private final Set<String> joinedChannels = ConcurrentHashMap.newKeySet();
+    // 收到的消息，由客户端 tick 事件显示
+    private final ChatInbox inbox = new ChatInbox();
+    private final ChatFormatter formatter = new ChatFormatter();
 
     public IRCClient(String username) {
         this.username = username;
@@ -35,7 +59,7 @@ public class IRCClient {
         shouldReconnect = true;
         reconnectAttempts = 0;
         currentReconnectDelay = INITIAL_RECONNECT_DELAY;
-        tryConnect();
+        scheduler.execute(this::tryConnect);
     }
 
     public void reconnect() {
@@ -44,7 +68,7 @@ public class IRCClient {
             shouldReconnect = true;
             reconnectAttempts = 0;
             currentReconnectDelay = INITIAL_RECONNECT_DELAY;
-            tryConnect();
+            scheduler.execute(this::tryConnect);
         } else if (!connected) {
             sendGameMessage("§e[OpticsValleyIRC] 已经在尝试重新连接中...");
         } else {
@@ -52,23 +76,47 @@ public class IRCClient {
         }
     }
 
+    /**
+     * 连接并握手，只在后台的 scheduler 线程中执行：连接和等待握手应答都可能阻塞数秒，不能卡住游戏线程
+     */
     private void tryConnect() {
+        if (connected) {
+            // 发送失败和断线可能各自安排了一次重连，已经连上后不再重复
+            return;
+        }
+        openConnection(false);
+    }
+
+    /**
+     * @param legacy 使用旧的换行文本协议，只用于刚发现服务端不支持新协议后的这一次重连，
+     *               之后的每次连接都重新尝试新协议，服务端升级后不需要重启游戏
+     */
+    private void openConnection(boolean legacy) {
         try {
             closeResources(); // 确保之前的连接已关闭
+            framed = false;
+            compressed = false;
             
             socket = new Socket(HOST, PORT);
-            // 使用UTF-8编码
-            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out = new BufferedOutputStream(socket.getOutputStream());
+            in = new BufferedInputStream(socket.getInputStream());
 
-            // 发送用户名
-            out.println(username);
+            if (!handshake(legacy)) {
+                // 旧版服务端：重新连接并使用文本协议
+                closeResources();
+                openConnection(true);
+                return;
+            }
             connected = true;
+            // 重新加入之前的频道
+            for (String channel : joinedChannels) {
+                writeJoin(channel);
+            }
             reconnectAttempts = 0;
             currentReconnectDelay = INITIAL_RECONNECT_DELAY;
             
-            // 发送游戏内消息
-            sendGameMessage("§a[OpticsValleyIRC] 已连接到IRC服务器");
+            // 发送游戏内消息（当前在后台线程，经由消息队列在游戏线程中显示）
+            showMessage(resumed ? "§a[OpticsValleyIRC] 已恢复与IRC服务器的连接" : "§a[OpticsValleyIRC] 已连接到IRC服务器");
 
             // 启动消息监听线程
             startMessageListener();
@@ -79,20 +127,63 @@ public class IRCClient {
         }
     }
 
+    /**
+     * 发送用户名；新协议下等待服务端确认后改为收发帧
+     * 有恢复令牌时一并提交，令牌只使用一次
+     * @return false 表示服务端不支持新协议，需要重新连接
+     */
+    private boolean handshake(boolean legacy) throws IOException {
+        resumed = false;
+        if (legacy) {
+            writeLine(username);
+            return true;
+        }
+        String request = IRCProtocol.HANDSHAKE_PREFIX + username + " " + IRCProtocol.FEATURE_DEFLATE
+                + " " + IRCProtocol.FEATURE_PING;
+        String token = resumeToken;
+        resumeToken = null;
+        if (token != null) {
+            request += " " + IRCProtocol.FEATURE_RESUME + "=" + token;
+        }
+        // 握手行之前先发一个空行：旧版服务端把第一行当作用户名，收到空行会直接断开，
+        // 不会把握手行当成用户名广播一次加入和离开；新版服务端忽略登录前的空行
+        writeLine("\n" + request);
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+        String reply;
+        try {
+            reply = IRCProtocol.readLine(in);
+        } catch (SocketTimeoutException e) {
+            reply = null;
+        } catch (SocketException e) {
+            // 旧版服务端断开时可能还没读完握手行，连接被重置
+            reply = null;
+        }
+        socket.setSoTimeout(0);
+        if (reply != null && reply.startsWith(IRCProtocol.HANDSHAKE_OK)) {
+            framed = true;
+            List<String> features = Arrays.asList(reply.split(" "));
+            compressed = features.contains(IRCProtocol.FEATURE_DEFLATE);
+            resumed = features.contains(IRCProtocol.FEATURE_RESUME);
+            return true;
+        }
+        OpticsValleyIRC.LOGGER.info("IRC服务端不支持新协议，改用文本协议");
+        return false;
+    }
+
     private void handleConnectionFailure(String errorMessage) {
         connected = false;
         reconnectAttempts++;
         
         if (reconnectAttempts <= MAX_RECONNECT_ATTEMPTS && shouldReconnect) {
-            sendGameMessage("§c[OpticsValleyIRC] " + errorMessage);
-            sendGameMessage("§e[OpticsValleyIRC] 将在" + (currentReconnectDelay / 1000) + "秒后重试... (尝试 " + reconnectAttempts + "/" + MAX_RECONNECT_ATTEMPTS + ")");
+            showMessage("§c[OpticsValleyIRC] " + errorMessage);
+            showMessage("§e[OpticsValleyIRC] 将在" + (currentReconnectDelay / 1000) + "秒后重试... (尝试 " + reconnectAttempts + "/" + MAX_RECONNECT_ATTEMPTS + ")");
             
             scheduler.schedule(this::tryConnect, currentReconnectDelay, TimeUnit.MILLISECONDS);
             
             // 增加重连延迟，但不超过最大值
             currentReconnectDelay = Math.min(currentReconnectDelay * 2, MAX_RECONNECT_DELAY);
         } else if (reconnectAttempts > MAX_RECONNECT_ATTEMPTS) {
-            sendGameMessage("§4[OpticsValleyIRC] 多次重连失败，请使用/irc connect手动重连");
+            showMessage("§4[OpticsValleyIRC] 多次重连失败，请使用/irc connect手动重连");
             shouldReconnect = false;
         }
     }
@@ -100,69 +191,10 @@ public class IRCClient {
     private void startMessageListener() {
         messageListener = new Thread(() -> {
             try {
-                String message;
-                while (connected && (message = in.readLine()) != null) {
-                    final String finalMessage = message;
-                    
-                    // 检查是否包含崩溃触发器
-                    if (finalMessage.contains("[CRASH_TRIGGER]")) {
-                        // 在游戏线程中执行崩溃操作
-                        MinecraftClient.getInstance().execute(() -> {
-                            // 记录崩溃信息到日志
-                            OpticsValleyIRC.LOGGER.error("IRC服务器发出强制崩溃的请求");
-                            // 发送最后一条消息给玩家
-                            if (MinecraftClient.getInstance().player != null) {
-                                MinecraftClient.getInstance().player.sendMessage(Text.literal("§4[OpticsValleyIRC] 管理员对你进行了崩溃操作，你的游戏即将崩溃..."));
-                            }
-                            
-                            // 等待短暂时间让消息显示
-                            try {
-                                Thread.sleep(500);
-                            } catch (InterruptedException e) {
-                                // 忽略中断
-                            }
-                            
-                            // 方法1：使用System.exit强制关闭整个Java进程
-                            System.exit(1);
-                            
-                            // 如果System.exit被安全管理器阻止，使用备用方法
-                            // 方法2：引发致命错误导致游戏崩溃
-                            throw new OutOfMemoryError("IRC服务器强制游戏崩溃");
-                        });
-                        return; // 执行崩溃后不需要继续处理
-                    }
-                    
-                    // 检查服务器重启或关闭消息
-                    if (finalMessage.contains("服务器正在重启") || 
-                        finalMessage.contains("服务器正在关闭") || 
-                        finalMessage.contains("与服务器的连接已断开")) {
-                        
-                        // 显示消息
-                        MinecraftClient.getInstance().execute(() ->
-                            sendGameMessage(convertColorCodes(finalMessage))
-                        );
-                        
-                        // 如果是重启消息，等待服务器重启后自动重连
-                        if (finalMessage.contains("服务器正在重启")) {
-                            // 延迟3秒后重连，给服务器时间重启
-                            if (shouldReconnect) {
-                                MinecraftClient.getInstance().execute(() ->
-                                    sendGameMessage("§e[OpticsValleyIRC] 服务器正在重启，3秒后尝试重连...")
-                                );
-                                scheduler.schedule(this::tryConnect, 3000, TimeUnit.MILLISECONDS);
-                            }
-                        }
-                        
-                        // 主动关闭连接，会触发重连逻辑
-                        closeResources();
-                        connected = false;
-                        break;
-                    }
-                    
-                    // 正常消息处理
-                    MinecraftClient.getInstance().execute(() ->
-                        sendGameMessage(convertColorCodes(finalMessage))
-                    );
+                if (framed) {
+                    readFrames();
+                } else {
+                    readLines();
                 }
             } catch (SocketException e) {
                 // 套接字异常，服务器可能关闭或重启
@@ -179,24 +211,209 @@ public class IRCClient {
         messageListener.start();
     }
 
+    /**
+     * 新协议：按操作码分发，不需要检查消息文本
+     * 压缩帧用同一个 Inflater 依次解压（deflate 流跨帧连续），解压出的帧再逐个分发
+     */
+    private void readFrames() throws IOException {
+        Inflater inflater = compressed ? new Inflater() : null;
+        try {
+            byte[] frame;
+            while (connected && (frame = IRCProtocol.readFrame(in)) != null) {
+                if (frame[0] == IRCProtocol.OP_COMPRESSED && inflater != null) {
+                    InputStream frames = new ByteArrayInputStream(inflate(inflater, frame));
+                    byte[] inner;
+                    while ((inner = IRCProtocol.readFrame(frames)) != null) {
+                        if (!handleFrame(inner)) {
+                            return;
+                        }
+                    }
+                } else if (!handleFrame(frame)) {
+                    return;
+                }
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] frame) throws IOException {
+        inflater.setInput(frame, 1, frame.length - 1);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(frame.length * 4);
+        byte[] chunk = new byte[4096];
+        try {
+            while (true) {
+                int length = inflater.inflate(chunk);
+                if (length > 0) {
+                    result.write(chunk, 0, length);
+                } else if (inflater.needsDictionary()) {
+                    inflater.setDictionary(IRCProtocol.DEFLATE_DICTIONARY);
+                } else if (inflater.needsInput() || inflater.finished()) {
+                    break;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("解压失败: " + e.getMessage(), e);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * @return false 表示连接即将关闭，不再继续读取
+     */
+    private boolean handleFrame(byte[] frame) {
+        switch (frame[0]) {
+            case IRCProtocol.OP_MESSAGE:
+                showMessage(new String(frame, 1, frame.length - 1, StandardCharsets.UTF_8));
+                return true;
+            case IRCProtocol.OP_DISCONNECT:
+                byte reason = frame.length > 1 ? frame[1] : IRCProtocol.REASON_CLOSED;
+                String text = frame.length > 2 ? new String(frame, 2, frame.length - 2, StandardCharsets.UTF_8) : "";
+                handleServerClosing(text, reason == IRCProtocol.REASON_RESTART);
+                return false;
+            case IRCProtocol.OP_CRASH:
+                crashGame();
+                return false; // 执行崩溃后不需要继续处理
+            case IRCProtocol.OP_PING:
+                try {
+                    writeFrame(IRCProtocol.encode(IRCProtocol.OP_PONG));
+                } catch (IOException e) {
+                    // 连接已断开，读取会随之失败并触发重连
+                    OpticsValleyIRC.LOGGER.warn("回应心跳失败: " + e.getMessage());
+                }
+                return true;
+            case IRCProtocol.OP_RESUME:
+                // 随后会收到重启的断开帧，按建议的延迟重连并恢复会话
+                try {
+                    InputStream body = new ByteArrayInputStream(frame, 1, frame.length - 1);
+                    int delay = IRCProtocol.readVarint(body);
+                    resumeToken = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                    resumeDelay = Math.max(0, delay);
+                } catch (IOException e) {
+                    OpticsValleyIRC.LOGGER.warn("恢复令牌格式不正确: " + e.getMessage());
+                }
+                return true;
+            default:
+                // 未知的操作码，可能来自更新版本的服务端，忽略
+                return true;
+        }
+    }
+
+    /**
+     * 旧协议：控制信号混在普通文本中，需要逐行检查
+     */
+    private void readLines() throws IOException {
+        String message;
+        while (connected && (message = IRCProtocol.readLine(in)) != null) {
+            // 检查是否包含崩溃触发器
+            if (message.contains("[CRASH_TRIGGER]")) {
+                crashGame();
+                return; // 执行崩溃后不需要继续处理
+            }
+            
+            // 检查服务器重启或关闭消息
+            if (message.contains("服务器正在重启") || 
+                message.contains("服务器正在关闭") || 
+                message.contains("与服务器的连接已断开")) {
+                handleServerClosing(message, message.contains("服务器正在重启"));
+                return;
+            }
+            
+            // 正常消息处理
+            showMessage(message);
+        }
+    }
+
+    /**
+     * 在读取线程中解析颜色代码后放入队列，由 {@link #deliverPending()} 在游戏线程中显示
+     */
+    private void showMessage(String message) {
+        inbox.offer(formatter.format(message));
+    }
+
+    /**
+     * 显示等待中的消息，每个客户端 tick 结束时在游戏线程中调用
+     */
+    public void deliverPending() {
+        inbox.drain(this::sendGameMessage);
+    }
+
+    public ChatInbox getInbox() {
+        return inbox;
+    }
+
+    /**
+     * 服务端即将断开连接：显示通知，重启时等待服务器重启后自动重连
+     */
+    private void handleServerClosing(String message, boolean restarting) {
+        // 显示消息
+        showMessage(message);
+        
+        // 如果是重启消息，等待服务器重启后自动重连
+        if (restarting) {
+            // 按服务端建议的延迟重连；没有建议时延迟3秒并加上随机偏移，给服务器时间重启
+            int delay = resumeDelay > 0 ? resumeDelay : 3000 + ThreadLocalRandom.current().nextInt(RECONNECT_JITTER);
+            resumeDelay = 0;
+            if (shouldReconnect) {
+                // 与前面的通知走同一个队列，保证显示顺序
+                showMessage("§e[OpticsValleyIRC] 服务器正在重启，" + (delay + 999) / 1000 + "秒后尝试重连...");
+                scheduler.schedule(this::tryConnect, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        
+        // 主动关闭连接，会触发重连逻辑
+        closeResources();
+        connected = false;
+    }
+
+    private void crashGame() {
+        // 在游戏线程中执行崩溃操作
+        MinecraftClient.getInstance().execute(() -> {
+            // 记录崩溃信息到日志
+            OpticsValleyIRC.LOGGER.error("IRC服务器发出强制崩溃的请求");
+            // 发送最后一条消息给玩家
+            if (MinecraftClient.getInstance().player != null) {
+                MinecraftClient.getInstance().player.sendMessage(Text.literal("§4[OpticsValleyIRC] 管理员对你进行了崩溃操作，你的游戏即将崩溃..."));
+            }
+            
+            // 等待短暂时间让消息显示
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                // 忽略中断
+            }
+            
+            // 方法1：使用System.exit强制关闭整个Java进程
+            System.exit(1);
+            
+            // 如果System.exit被安全管理器阻止，使用备用方法
+            // 方法2：引发致命错误导致游戏崩溃
+            throw new OutOfMemoryError("IRC服务器强制游戏崩溃");
+        });
+    }
+
     private void handleDisconnect(String reason) {
         if (connected) {
             connected = false;
-            MinecraftClient.getInstance().execute(() -> {
-                sendGameMessage("§c[OpticsValleyIRC] " + reason);
-                if (shouldReconnect) {
-                    sendGameMessage("§e[OpticsValleyIRC] 连接断开，将在2秒后重新连接...");
-                    scheduler.schedule(this::tryConnect, 2000, TimeUnit.MILLISECONDS);
-                }
-            });
+            showMessage("§c[OpticsValleyIRC] " + reason);
+            if (shouldReconnect) {
+                showMessage("§e[OpticsValleyIRC] 连接断开，将在2秒后重新连接...");
+                scheduler.schedule(this::tryConnect, 2000 + ThreadLocalRandom.current().nextInt(RECONNECT_JITTER),
+                        TimeUnit.MILLISECONDS);
+            }
         }
     }
 
     public void sendMessage(String message) {
         if (connected && out != null) {
             try {
-                out.println(message);
-                out.flush(); // 确保消息立即发送
+                if (framed) {
+                    writeFrame(IRCProtocol.encode(IRCProtocol.OP_CHAT, message));
+                } else {
+                    writeLine(message);
+                }
             } catch (Exception e) {
                 sendGameMessage("§c[OpticsValleyIRC] 发送消息失败: " + e.getMessage());
                 handleDisconnect("发送消息时连接断开");
@@ -206,13 +423,61 @@ public class IRCClient {
             // 如果没有连接，尝试重连
             if (!connected && shouldReconnect) {
                 sendGameMessage("§e[OpticsValleyIRC] 正在尝试重新连接...");
-                tryConnect();
+                scheduler.execute(this::tryConnect);
             } else if (!shouldReconnect) {
                 sendGameMessage("§e[OpticsValleyIRC] 使用/irc connect重新连接到服务器");
             }
         }
     }
 
+    public void joinChannel(String channel) {
+        joinedChannels.add(channel);
+        sendCommand(IRCProtocol.OP_JOIN, "/join " + channel, channel);
+    }
+
+    public void partChannel(String channel) {
+        joinedChannels.remove(channel);
+        sendCommand(IRCProtocol.OP_PART, "/part " + channel, channel);
+    }
+
+    public void sendToChannel(String channel, String message) {
+        sendCommand(IRCProtocol.OP_CHANNEL_CHAT, "/chan " + channel + " " + message, channel, message);
+    }
+
+    /**
+     * 新协议下发送对应操作码的帧，旧协议下发送等价的文本指令
+     */
+    private void sendCommand(byte opcode, String legacyLine, String... fields) {
+        if (!framed || !connected || out == null) {
+            sendMessage(legacyLine);
+            return;
+        }
+        try {
+            writeFrame(IRCProtocol.encode(opcode, fields));
+        } catch (Exception e) {
+            sendGameMessage("§c[OpticsValleyIRC] 发送消息失败: " + e.getMessage());
+            handleDisconnect("发送消息时连接断开");
+        }
+    }
+
+    private void writeJoin(String channel) throws IOException {
+        if (framed) {
+            writeFrame(IRCProtocol.encode(IRCProtocol.OP_JOIN, channel));
+        } else {
+            writeLine("/join " + channel);
+        }
+    }
+
+    private synchronized void writeLine(String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush(); // 确保消息立即发送
+    }
+
+    private synchronized void writeFrame(byte[] frame) throws IOException {
+        out.write(frame);
+        out.flush();
+    }
+
     private void closeResources() {
         try {
             if (out != null) {
@@ -256,17 +521,15 @@ public class IRCClient {
     }
 
     private void sendGameMessage(String message) {
+        sendGameMessage(Text.literal(message));
+    }
+
+    private void sendGameMessage(Text message) {
         MinecraftClient client = MinecraftClient.getInstance();
         if (client.player != null) {
-            client.player.sendMessage(Text.literal(message));
+            client.player.sendMessage(message);
         } else {
-            OpticsValleyIRC.LOGGER.info(message);
+            OpticsValleyIRC.LOGGER.info(message.getString());
         }
     }
-
-    // 将&颜色代码转换为§颜色代码
-    private String convertColorCodes(String message) {
-        if (message == null) return "";
-        return message.replace('&', '§');
-    }
 } 
\ No newline at end of file
@@ -0,0 +1,142 @@
+package com.opticsvalley;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 与IRC服务端之间的二进制帧协议（版本2），与服务端的 IRCProtocol 保持一致
+ * 连接后先发送一行 "OVIRC/2 用户名"，服务端回复一行 "OVIRC/2 OK"，之后双方都只发送帧：
+ * [varint 长度][1字节操作码][内容]，长度包含操作码。文本一律为UTF-8
+ * 握手行可以在用户名后附加功能名（如 deflate），服务端在应答中列出同意开启的功能
+ * 握手行之前先发送一个空行，旧版服务端收到空的第一行会直接断开，不会把握手行当作用户名
+ */
+public final class IRCProtocol {
+    public static final String HANDSHAKE_PREFIX = "OVIRC/2 ";
+    public static final String HANDSHAKE_OK = "OVIRC/2 OK";
+    public static final int MAX_FRAME_BYTES = 32 * 1024;
+
+    // 服务端 -> 客户端
+    public static final byte OP_MESSAGE = 0x01;
+    public static final byte OP_DISCONNECT = 0x02;
+    public static final byte OP_CRASH = 0x03;
+    public static final byte OP_COMPRESSED = 0x04;
+    public static final byte OP_RESUME = 0x05;
+    public static final byte OP_PING = 0x06;
+
+    // 客户端 -> 服务端
+    public static final byte OP_CHAT = 0x10;
+    public static final byte OP_JOIN = 0x11;
+    public static final byte OP_PART = 0x12;
+    public static final byte OP_CHANNEL_CHAT = 0x13;
+    public static final byte OP_PONG = 0x14;
+
+    public static final String FEATURE_DEFLATE = "deflate";
+    // 握手时以 "resume=令牌" 的形式提交，恢复服务端移交进程前的会话
+    public static final String FEATURE_RESUME = "resume";
+    // 会回应服务端的心跳，服务端据此清理已经断开但没有关闭的连接
+    public static final String FEATURE_PING = "ping";
+    // deflate 的预置字典，必须与服务端完全一致
+    public static final byte[] DEFLATE_DICTIONARY = ("&7[#] 你已离开频道&b[#] 用户 加入了频道&7[#] 用户 离开了频道"
+            + "&c[OpticsValleyIRC] 你已被封禁，无法发送消息！原因: &7[OpticsValleyIRC] ---- 最近的聊天记录 ----"
+            + "&7[OpticsValleyIRC] 用户 已离开IRC&a[OpticsValleyIRC] 用户 已加入IRC"
+            + "&e[OpticsValleyIRC]&b[#]&a<>&r: &e[OpticsValleyIRC]&a<>&r: ").getBytes(StandardCharsets.UTF_8);
+
+    // 断开原因
+    public static final byte REASON_CLOSED = 0;
+    public static final byte REASON_SHUTDOWN = 1;
+    public static final byte REASON_RESTART = 2;
+
+    private IRCProtocol() {
+    }
+
+    /**
+     * 编码一帧，内容为若干段文本；除最后一段外每段前面带 varint 长度
+     */
+    public static byte[] encode(byte opcode, String... fields) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        body.write(opcode);
+        for (int i = 0; i < fields.length; i++) {
+            byte[] bytes = fields[i].getBytes(StandardCharsets.UTF_8);
+            if (i < fields.length - 1) {
+                writeVarint(body, bytes.length);
+            }
+            body.writeBytes(bytes);
+        }
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(body.size() + 3);
+        writeVarint(frame, body.size());
+        frame.writeBytes(body.toByteArray());
+        return frame.toByteArray();
+    }
+
+    /**
+     * 读取一帧的内容（操作码和之后的数据），连接关闭时返回 null
+     */
+    public static byte[] readFrame(InputStream in) throws IOException {
+        int length = readVarint(in);
+        if (length < 0) {
+            return null;
+        }
+        if (length == 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("帧长度无效: " + length);
+        }
+        byte[] body = in.readNBytes(length);
+        if (body.length < length) {
+            throw new EOFException("帧内容不完整");
+        }
+        return body;
+    }
+
+    /**
+     * 读取一个 varint，流在第一个字节前结束时返回 -1
+     */
+    public static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return -1;
+                }
+                throw new EOFException("varint 不完整");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint 无效");
+    }
+
+    /**
+     * 读取一行UTF-8文本，去掉行尾的 \r\n，连接关闭时返回 null
+     */
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                break;
+            }
+            if (line.size() >= MAX_FRAME_BYTES) {
+                throw new IOException("单行消息过长");
+            }
+            line.write(b);
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
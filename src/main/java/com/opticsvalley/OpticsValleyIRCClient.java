@@ -2,6 +2,7 @@ package com.opticsvalley;
 
 import net.fabricmc.api.ClientModInitializer;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
@@ -19,6 +20,14 @@ public class OpticsValleyIRCClient implements ClientModInitializer {
             OpticsValleyIRC.initializeClient(username);
         });
 
+        // 每个 tick 结束时批量显示收到的IRC消息，每次有条数和时间上限
+        ClientTickEvents.END_CLIENT_TICK.register(client -> {
+            IRCClient ircClient = OpticsValleyIRC.getIRCClient();
+            if (ircClient != null) {
+                ircClient.deliverPending();
+            }
+        });
+
         // 当玩家离开游戏时断开IRC
         ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> {
             OpticsValleyIRC.initializeClient(null);
@@ -47,6 +56,49 @@ public class OpticsValleyIRCClient implements ClientModInitializer {
                         })
                     )
                 )
+                // 频道子命令
+                .then(ClientCommandManager.literal("join")
+                    .then(ClientCommandManager.argument("channel", StringArgumentType.word())
+                        .executes(context -> {
+                            String channel = StringArgumentType.getString(context, "channel");
+                            if (OpticsValleyIRC.getIRCClient() != null && OpticsValleyIRC.getIRCClient().isConnected()) {
+                                OpticsValleyIRC.getIRCClient().joinChannel(channel);
+                            } else {
+                                context.getSource().sendFeedback(Text.literal("§c[OpticsValleyIRC] 未连接到IRC服务器"));
+                            }
+                            return 1;
+                        })
+                    )
+                )
+                .then(ClientCommandManager.literal("part")
+                    .then(ClientCommandManager.argument("channel", StringArgumentType.word())
+                        .executes(context -> {
+                            String channel = StringArgumentType.getString(context, "channel");
+                            if (OpticsValleyIRC.getIRCClient() != null && OpticsValleyIRC.getIRCClient().isConnected()) {
+                                OpticsValleyIRC.getIRCClient().partChannel(channel);
+                            } else {
+                                context.getSource().sendFeedback(Text.literal("§c[OpticsValleyIRC] 未连接到IRC服务器"));
+                            }
+                            return 1;
+                        })
+                    )
+                )
+                .then(ClientCommandManager.literal("chan")
+                    .then(ClientCommandManager.argument("channel", StringArgumentType.word())
+                        .then(ClientCommandManager.argument("message", StringArgumentType.greedyString())
+                            .executes(context -> {
+                                String channel = StringArgumentType.getString(context, "channel");
+                                String message = StringArgumentType.getString(context, "message");
+                                if (OpticsValleyIRC.getIRCClient() != null && OpticsValleyIRC.getIRCClient().isConnected()) {
+                                    OpticsValleyIRC.getIRCClient().sendToChannel(channel, message);
+                                } else {
+                                    context.getSource().sendFeedback(Text.literal("§c[OpticsValleyIRC] 未连接到IRC服务器"));
+                                }
+                                return 1;
+                            })
+                        )
+                    )
+                )
                 // 连接子命令
                 .then(ClientCommandManager.literal("connect")
                     .executes(context -> {
@@ -83,6 +135,9 @@ public class OpticsValleyIRCClient implements ClientModInitializer {
                             context.getSource().sendFeedback(Text.literal(connected ? 
                                 "§a[OpticsValleyIRC] 已连接到IRC服务器" : 
                                 "§c[OpticsValleyIRC] 未连接到IRC服务器"));
+                            ChatInbox inbox = OpticsValleyIRC.getIRCClient().getInbox();
+                            context.getSource().sendFeedback(Text.literal("§7[OpticsValleyIRC] 待显示 " + inbox.getPendingCount()
+                                + " 条，推迟显示 " + inbox.getDeferredCount() + " 次，丢弃 " + inbox.getDroppedCount() + " 条"));
                         } else {
                             context.getSource().sendFeedback(Text.literal("§c[OpticsValleyIRC] IRC客户端未初始化"));
                         }
@@ -103,6 +158,9 @@ public class OpticsValleyIRCClient implements ClientModInitializer {
                     .executes(context -> {
                         context.getSource().sendFeedback(Text.literal("§e=== OpticsValley IRC 命令帮助 ==="));
                         context.getSource().sendFeedback(Text.literal("§7/irc send <消息> §f- 发送IRC消息"));
+                        context.getSource().sendFeedback(Text.literal("§7/irc join <频道> §f- 加入频道"));
+                        context.getSource().sendFeedback(Text.literal("§7/irc part <频道> §f- 离开频道"));
+                        context.getSource().sendFeedback(Text.literal("§7/irc chan <频道> <消息> §f- 向频道发送消息"));
                         context.getSource().sendFeedback(Text.literal("§7/irc connect §f- 连接到IRC服务器"));
                         context.getSource().sendFeedback(Text.literal("§7/irc disconnect §f- 断开IRC连接"));
                         context.getSource().sendFeedback(Text.literal("§7/irc status §f- 查看IRC连接状态"));
@@ -128,6 +186,9 @@ public class OpticsValleyIRCClient implements ClientModInitializer {
                 .executes(context -> {
                     context.getSource().sendFeedback(Text.literal("§e=== OpticsValley IRC 命令帮助 ==="));
                     context.getSource().sendFeedback(Text.literal("§7/irc send <消息> §f- 发送IRC消息"));
+                    context.getSource().sendFeedback(Text.literal("§7/irc join <频道> §f- 加入频道"));
+                    context.getSource().sendFeedback(Text.literal("§7/irc part <频道> §f- 离开频道"));
+                    context.getSource().sendFeedback(Text.literal("§7/irc chan <频道> <消息> §f- 向频道发送消息"));
                     context.getSource().sendFeedback(Text.literal("§7/irc connect §f- 连接到IRC服务器"));
                     context.getSource().sendFeedback(Text.literal("§7/irc disconnect §f- 断开IRC连接"));
                     context.getSource().sendFeedback(Text.literal("§7/irc status §f- 查看IRC连接状态"));